@@ -0,0 +1,179 @@
+package add.contact;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract.Groups;
+import android.provider.ContactsContract.RawContacts;
+
+/**
+ * AccountCache
+ * @author Matt
+ *
+ * Remembers which group and account new contacts are added to so it does
+ * not have to be worked out again for every contact.
+ *
+ * The chosen group id, account name and account type are kept in memory
+ * and in a preference file so they survive restarts. A cached choice is
+ * trusted until the groups or raw contacts change (or the app restarts),
+ * after which the next request checks the group still exists and is
+ * visible with a single targeted query. Only if that fails is a new group
+ * picked, again with a query for at most one row of the groups table.
+ */
+public class AccountCache
+{
+	/* name of preference file holding the chosen account */
+	public static final String ACCOUNT_PREFS = "AccountFile";
+
+	/* the instance shared by all activities */
+	private static AccountCache instance;
+
+	/* columns read from the groups table */
+	private static final Projection COLUMNS = new Projection(
+			Groups.SOURCE_ID,
+			Groups.ACCOUNT_NAME,
+			Groups.ACCOUNT_TYPE);
+	private static final int GROUP_ID = COLUMNS.indexOf(Groups.SOURCE_ID);
+	private static final int ACCOUNT_NAME =
+			COLUMNS.indexOf(Groups.ACCOUNT_NAME);
+	private static final int ACCOUNT_TYPE =
+			COLUMNS.indexOf(Groups.ACCOUNT_TYPE);
+
+	/* visible groups which belong to an account */
+	private static final String VISIBLE_GROUP =
+			Groups.GROUP_VISIBLE + " = 1 AND " +
+			Groups.DELETED + " = 0 AND " +
+			Groups.SOURCE_ID + " IS NOT NULL AND " +
+			Groups.ACCOUNT_NAME + " IS NOT NULL AND " +
+			Groups.ACCOUNT_TYPE + " IS NOT NULL";
+
+	private final ContentResolver cr;
+	private final SharedPreferences prefs;
+
+	/* cached group id, account name and account type or null */
+	private String[] account;
+	/* set when the cached account has to be checked before use */
+	private volatile boolean suspect = true;
+
+	/**
+	 * Get the shared cache, creating it if needed.
+	 */
+	public static synchronized AccountCache getInstance(Context ctx)
+	{
+		if (instance == null) {
+			instance = new AccountCache(ctx.getApplicationContext());
+		}
+		return instance;
+	}
+
+	private AccountCache(Context ctx)
+	{
+		this.cr = ctx.getContentResolver();
+		this.prefs = ctx.getSharedPreferences(ACCOUNT_PREFS, 0);
+
+		/* start from whatever was chosen last time, it is checked before
+		 * it is used since we can not know what changed since */
+		String group_id = prefs.getString("group_id", null);
+		String acct_name = prefs.getString("account_name", null);
+		String acct_type = prefs.getString("account_type", null);
+		if (group_id != null && acct_name != null && acct_type != null) {
+			account = new String[] { group_id, acct_name, acct_type };
+		}
+
+		/* groups being hidden or removed, or accounts going away, may
+		 * invalidate the choice */
+		ContentObserver observer = new ContentObserver(null) {
+			@Override
+			public void onChange(boolean selfChange)
+			{
+				suspect = true;
+			}
+		};
+		cr.registerContentObserver(Groups.CONTENT_URI, true, observer);
+		cr.registerContentObserver(RawContacts.CONTENT_URI, true, observer);
+	}
+
+	/**
+	 * Determine which account and group new contacts should be added to.
+	 *
+	 * @return an array of 3 values: group id, account name and account type
+	 * 		of a visible group in the users contact list which we should add
+	 * 		new contacts to. The values are null if there is no such group.
+	 */
+	public synchronized String[] getTargetAccount()
+	{
+		if (account != null && suspect) {
+			suspect = false;
+			/* check the group we had is still there and visible */
+			String[] found = queryGroup(VISIBLE_GROUP + " AND " +
+					Groups.SOURCE_ID + " = ? AND " +
+					Groups.ACCOUNT_NAME + " = ? AND " +
+					Groups.ACCOUNT_TYPE + " = ?", account);
+			if (found == null) {
+				setAccount(null);
+			}
+		}
+
+		if (account == null) {
+			suspect = false;
+			setAccount(queryGroup(VISIBLE_GROUP, null));
+		}
+
+		return account == null ? new String[3] : account.clone();
+	}
+
+	/**
+	 * Forget the cached account, the next request looks it up again.
+	 */
+	public synchronized void invalidate()
+	{
+		setAccount(null);
+	}
+
+	/**
+	 * Get the first group matching the selection.
+	 *
+	 * @return group id, account name and account type or null.
+	 */
+	private String[] queryGroup(String selection, String[] args)
+	{
+		/* ask the provider for a single row rather than reading them all */
+		Uri uri = Groups.CONTENT_URI.buildUpon()
+				.appendQueryParameter("limit", "1").build();
+		Cursor c = COLUMNS.query(cr, uri, selection, args,
+				Groups._ID + " ASC");
+		if (c == null) {
+			return null;
+		}
+		try {
+			if (c.moveToFirst()) {
+				Projection.Row row = COLUMNS.bind(c);
+				return new String[] { row.getString(GROUP_ID),
+						row.getString(ACCOUNT_NAME),
+						row.getString(ACCOUNT_TYPE) };
+			}
+			return null;
+		} finally {
+			c.close();
+		}
+	}
+
+	/* update the cached account in memory and on disk */
+	private void setAccount(String[] acct)
+	{
+		account = acct;
+		Editor edit = prefs.edit();
+		if (acct == null) {
+			edit.clear();
+		} else {
+			edit.putString("group_id", acct[0]);
+			edit.putString("account_name", acct[1]);
+			edit.putString("account_type", acct[2]);
+		}
+		edit.apply();
+	}
+}
@@ -0,0 +1,32 @@
+package add.contact;
+
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+
+/**
+ * AddContactApp
+ * @author Matt
+ *
+ * The application object. Debuggable builds and test runs watch for disk
+ * and provider I/O on the UI thread, see MainThreadIo. In a test run,
+ * on a device in test harness mode or under Robolectric, a screen which
+ * goes over its budget fails the run.
+ */
+public class AddContactApp extends Application
+{
+	@Override
+	public void onCreate()
+	{
+		super.onCreate();
+		/* numbers are read by the rules of the country the phone is in */
+		Util.setRegion(this);
+		boolean test = ActivityManager.isRunningInTestHarness()
+				|| "robolectric".equals(Build.FINGERPRINT);
+		if (test || (getApplicationInfo().flags
+				& ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+			MainThreadIo.install(this, test);
+		}
+	}
+}
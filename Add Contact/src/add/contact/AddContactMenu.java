@@ -10,6 +10,7 @@ import android.view.MenuItem.OnMenuItemClickListener;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
+import android.widget.TextView;
 
 
 /***
@@ -22,9 +23,22 @@ import android.widget.Button;
  * 			your name.
  * 		iii) view your contacts list in most recently added order.
  * 		iv) set the name the app send in action (ii)                  
+ *
+ * While the menu is showing it listens to the SmsOutbox and shows how the
+ * last name text is getting on under the buttons, since the dialpad
+ * screen which queued it has already closed.
  */
 public class AddContactMenu extends FragmentActivity 
 {
+	/* shows the state of name texts under the buttons */
+	private final SmsOutbox.Listener text_status = new SmsOutbox.Listener()
+	{
+		@Override
+		public void onTextStatus(long id, String number, int status)
+		{
+			showTextStatus(number, status);
+		}
+	};
 	
 	/*
 	 * (non-Javadoc)
@@ -39,6 +53,13 @@ public class AddContactMenu extends FragmentActivity
         
         /* bind listeners to menu buttons */
         prepareScreen();
+        
+        /* start loading the number index shared by the add screens */
+        PhoneIndex.getInstance(this).warmUp();
+        /* finish adding any contacts an earlier run did not get to */
+        ContactWriter.getInstance(this).replay();
+        /* and send any texts which are still waiting */
+        SmsOutbox.getInstance(this).resume();
     }
 
     /**
@@ -83,6 +104,52 @@ public class AddContactMenu extends FragmentActivity
         
     }
     
+    @Override
+    public void onResume()
+    {
+    	super.onResume();
+    	SmsOutbox.getInstance(this).addListener(text_status);
+    }
+    
+    @Override
+    public void onPause()
+    {
+    	super.onPause();
+    	SmsOutbox.getInstance(this).removeListener(text_status);
+    }
+    
+    /**
+     * Show how a name text is getting on.
+     * 
+     * @param number - the number the text is going to.
+     * @param status - one of the SmsOutbox states.
+     */
+    private void showTextStatus(String number, int status)
+    {
+    	TextView tv = (TextView) this.findViewById(R.id.text_status);
+    	String msg;
+    	switch( status )
+    	{
+    	case SmsOutbox.QUEUED:
+    		msg = "Waiting to send your name to " + number;
+    		break;
+    	case SmsOutbox.SENDING:
+    		msg = "Sending your name to " + number + "\u2026";
+    		break;
+    	case SmsOutbox.SENT:
+    		msg = "Sent your name to " + number;
+    		break;
+    	case SmsOutbox.DELIVERED:
+    		msg = "Your name was delivered to " + number;
+    		break;
+    	default:
+    		msg = "Failed to send text to " + number;
+    		break;
+    	}
+    	tv.setText(msg);
+    	tv.setVisibility(View.VISIBLE);
+    }
+    
     public boolean openOptionsMenu(View v)
     {
     	this.openOptionsMenu();
@@ -98,6 +165,7 @@ public class AddContactMenu extends FragmentActivity
     {	
     	MenuInflater inflater = getMenuInflater();
     	inflater.inflate(R.menu.activity_menu, menu);
+    	DebugMetrics.addMenuItem(this, menu);
     	
     	/* create a set name option in the menu */
     	MenuItem setName = menu.getItem(1);
@@ -7,7 +7,6 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.support.v4.app.FragmentActivity;
-import android.telephony.SmsManager;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -53,6 +52,9 @@ public class AddFromDialpad extends FragmentActivity {
         setContentView(R.layout.add_from_dialpad);
 
         prepareScreen();
+        
+        /* load the shared number index so duplicates can be caught */
+        PhoneIndex.getInstance(this).warmUp();
     }
 
     @Override 
@@ -74,6 +76,7 @@ public class AddFromDialpad extends FragmentActivity {
     {	
     	MenuInflater inflater = getMenuInflater();
     	inflater.inflate(R.menu.activity_menu, menu);
+    	DebugMetrics.addMenuItem(this, menu);
     	
     	/* create a set name option in the menu */
     	MenuItem setName = menu.getItem(1);
@@ -127,7 +130,7 @@ public class AddFromDialpad extends FragmentActivity {
 		    	String name = name_text.getText().toString();
 		    	
 		    	/* validate name input, otherwise pop up a reminder */
-		    	if(name.length() < 1)
+		    	if(name.trim().length() < 1)
 		    	{
 		    		Util.toast_msg(AddFromDialpad.this, "Enter contact name.");
 		    		return;
@@ -138,38 +141,40 @@ public class AddFromDialpad extends FragmentActivity {
 		    			findViewById(R.id.phone_number_input);
 		    	String phone = phone_text.getText().toString();
 		    	
-		    	/* check if the phone number is 10 digit int */
-		    	if(phone.length() != 10 || !Util.isInteger(phone) )
+		    	/* check the phone number is a full number, formatting and
+		    	 * country codes are fine */
+		    	if( !PhoneNumber.isValid(phone) )
 		    	{
 		    		Util.toast_msg(AddFromDialpad.this, 
-		    				"Check that phone number is 10 digits.");
+		    				"Check the phone number.");
 		    		return;
 		    	}
-				
-		    	/* add the contact and send the message, then close the 
-		    	 * activity. Catch any exception and alert gracefully */
-		    	try
+		    	
+		    	/* do not add a second contact for a known number */
+		    	String existing = PhoneIndex.getInstance(AddFromDialpad.this)
+		    			.lookupName(phone);
+		    	if(existing != null)
 		    	{
-		    		Util.addContact(AddFromDialpad.this, phone, name);
-		    		
-		    		/* attempt to send text, if no exception was thrown 
-		    		 * adding */
-		    		try
-			    	{
-			    		sendText(phone);
-			    	}
-			    	catch(Exception e)
-			    	{
-			    		Util.toast_msg(AddFromDialpad.this, "Failed to " +
-			    				"send text to new contact." );
-			    	}
+		    		Util.toast_msg(AddFromDialpad.this, 
+		    				"Contact already exists: " + existing);
+		    		return;
 		    	}
-		    	catch(Exception e)
+				
+		    	/* queue the contact to be added in the background, the 
+		    	 * writer lets the user know once it is in. if the same 
+		    	 * number is still being added this is a repeat tap. */
+		    	if(!ContactWriter.getInstance(AddFromDialpad.this).add(
+		    			new NewContact(phone, name)))
 		    	{
 		    		Util.toast_msg(AddFromDialpad.this, 
-		    				"Failed to add contact.");
+		    				"Already adding contact.");
+		    		return;
 		    	}
 		    	
+		    	/* queue the text, the outbox lets the user know if it 
+		    	 * can not be sent */
+		    	sendText(phone);
+		    	
 		    	/* finally close the activity */
 				finish();
 			}
@@ -195,7 +200,8 @@ public class AddFromDialpad extends FragmentActivity {
 
     /**
      * Send a text to the input number with the content being the name
-     * set in the application.
+     * set in the application. The text is queued in the SmsOutbox and
+     * sent in the background.
      * 
      * @param number - phone number to send SMS text message to.
      */
@@ -203,8 +209,7 @@ public class AddFromDialpad extends FragmentActivity {
     {
     	String name = getName();
     	
-    	SmsManager.getDefault().sendTextMessage(number, null, name, 
-    			null, null);
+    	SmsOutbox.getInstance(this).send(number, name);
     }
 
     /**
@@ -1,10 +1,10 @@
 package add.contact;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.provider.ContactsContract;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.ContentResolver;
@@ -19,6 +19,8 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.MenuItem.OnMenuItemClickListener;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.BaseAdapter;
@@ -44,235 +46,686 @@ import android.widget.TextView;
  */
 public class AddFromText extends Activity {
 
-	/* Async task to fetch recent text messages */
-	private LoadMessages retreiver;
+	/* place in the load of recent text messages, used to cancel it */
+	private SharedLoader.Ticket retreiver;
+	/* adapter of the text list, null until the list is shown */
+	private CustomTextBaseAdapter adapter;
+	/* loading row shown at the bottom of the list while there is more */
+	private View footer;
+	/* date and row id of the oldest text loaded, the next page starts 
+	 * below them */
+	private long oldest_date = Long.MAX_VALUE;
+	private long oldest_id = Long.MAX_VALUE;
+	/* false once a page came back short and there is nothing older */
+	private boolean has_more = true;
+	/* true to list conversations with unknown senders rather than every
+	 * incoming text */
+	private boolean unknown_only;
+	
+	/* name of preference file remembering how texts are listed */
+	public static final String TEXT_PREFS = "TextListFile";
+	
+	/* number of texts fetched per page */
+	private static final int PAGE_SIZE = 50;
+	/* start fetching the next page when this close to the end */
+	private static final int PREFETCH = 10;
 	
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
-        /* display loading screen and launch async loading task */
+        unknown_only = getSharedPreferences(TEXT_PREFS, 0)
+        		.getBoolean("unknown_only", false);
+        loadFirstPage();
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see android.app.Activity#onDestroy()
+     * 
+     * Stop waiting on texts nobody will see, the load itself stops too 
+     * unless another screen is waiting on it.
+     */
+    @Override
+    public void onDestroy()
+    {
+    	super.onDestroy();
+    	if( retreiver != null )
+    	{
+    		retreiver.cancel();
+    	}
+    }
+    
+    /**
+     * Forget any texts loaded so far, display loading screen and launch 
+     * async loading task for the newest page.
+     */
+    private void loadFirstPage()
+    {
+    	if( retreiver != null )
+    	{
+    		retreiver.cancel();
+    	}
+    	adapter = null;
+    	oldest_date = Long.MAX_VALUE;
+    	oldest_id = Long.MAX_VALUE;
+    	has_more = true;
+    	
         setContentView(R.layout.progress);
-        retreiver = new LoadMessages(getContentResolver());
-        retreiver.execute();
+        loadPage();
+    }
+    
+	/**
+	 * Fetch the page of texts after the ones already shown, unless one
+	 * is already on its way or there are no more.
+	 */
+    private void loadNextPage()
+    {
+    	if( !has_more || adapter == null || retreiver.isActive() )
+    	{
+    		return;
+    	}
+    	loadPage();
+    }
+    
+    /**
+     * Load the page of texts below oldest_date and oldest_id. The texts 
+     * are shown batch by batch as they arrive.
+     */
+    private void loadPage()
+    {
+    	retreiver = SharedLoader.getInstance().join(
+    			"texts/" + unknown_only + "/" + oldest_date + "/" + oldest_id,
+    			/* the first page fills an empty screen */
+    			adapter == null ? Scheduler.PRIORITY_HIGH 
+    					: Scheduler.PRIORITY_NORMAL,
+    			new LoadMessages(getApplicationContext(), unknown_only,
+    					oldest_date, oldest_id),
+    			new SharedLoader.Listener<TextInfo[], Page>()
+    			{
+    				@Override
+    				public void onProgress(TextInfo[] texts)
+    				{
+    					onTexts(texts);
+    				}
+    				
+    				@Override
+    				public void onLoaded(Page page)
+    				{
+    					onPageLoaded(page);
+    				}
+    			});
+    }
+    
+	/**
+	 * Called on the UI thread with each batch of texts published by 
+	 * the load. The first batch replaces the loading screen with the 
+	 * list, later ones are added to the bottom of it.
+	 */
+    private void onTexts(TextInfo[] texts)
+    {
+    	if( adapter == null )
+    	{
+    		showList();
+    	}
+    	adapter.add(texts);
+    }
+    
+	/**
+	 * Called when a page is done. If there were no texts at all the list
+	 * has not been shown yet so show it empty. Once there are no older 
+	 * texts the loading row is removed.
+	 * 
+	 * @param page - where the page ended, or null if it could not be read.
+	 */
+    private void onPageLoaded(Page page)
+    {
+    	if( page != null )
+    	{
+    		oldest_date = page.last_date;
+    		oldest_id = page.last_id;
+    	}
+    	has_more = page != null && page.more;
+    	
+    	if( adapter == null )
+    	{
+    		showList();
+    	}
+    	final ListView lv = (ListView) findViewById(R.id.ListView01);
+    	if( !has_more )
+    	{
+    		lv.removeFooterView(footer);
+    	}
+    	else if( lv.getLastVisiblePosition() + PREFETCH >= lv.getCount() )
+    	{
+    		/* the user already scrolled to the bottom while this page
+    		 * loaded, fetch the next once this load is finished */
+    		lv.post(new Runnable() {
+    			@Override
+    			public void run()
+    			{
+    				loadNextPage();
+    			}
+    		});
+    	}
+    }
+    
+    /**
+     * Page
+     *
+     * How far a page of texts got, the next page starts after it.
+     */
+    static class Page
+    {
+    	/* number of texts shown */
+    	int cnt;
+    	/* date and row id of the last text fetched */
+    	long last_date;
+    	long last_id;
+    	/* false if there are no older texts */
+    	boolean more;
     }
 	
     /**
      * LoadMessages
      * @author Matt
      *
-     * Asynchronous task to load contacts so that the loading process is not
-     * tied to the UI thread. 
+     * Job to load texts so that the loading process is not tied to the UI
+     * thread. Messages are handed to the UI in small batches as they are 
+     * read so the list shows up after the first few rather than once all 
+     * of them are loaded.
+     * 
+     * Everything it reads comes through the context's content resolver 
+     * from the uris below, so a context whose resolver is backed by a 
+     * fake provider can run it against made up texts.
      */
-    class LoadMessages extends AsyncTask<Void,Integer,ArrayList<TextInfo>>
+    static class LoadMessages extends SharedLoader.Job<TextInfo[], Page>
     {
-    	/* content resolver used for querys, passed by the calling activity */
-    	ContentResolver cr;
+    	/* number of messages read before they are passed to the UI */
+    	private static final int BATCH_SIZE = 8;
+    	/* number of conversations whose senders are looked up at once */
+    	private static final int THREAD_CHUNK = 25;
+    	/* most conversations looked at for one page, if they hold fewer 
+    	 * than a page of unknown senders the next page carries on */
+    	private static final int THREAD_SCAN = 250;
+    	
+    	/* columns read from the texts */
+    	private static final Projection MESSAGES = new Projection(
+    			"body", "address", "date", "_id");
+    	private static final int MESSAGE_BODY = MESSAGES.indexOf("body");
+    	private static final int MESSAGE_ADDRESS = MESSAGES.indexOf("address");
+    	private static final int MESSAGE_DATE = MESSAGES.indexOf("date");
+    	private static final int MESSAGE_ID = MESSAGES.indexOf("_id");
+    	/* columns read from the conversations */
+    	private static final Projection THREADS = new Projection(
+    			"_id", "date", "recipient_ids", "snippet");
+    	private static final int THREAD_ID = THREADS.indexOf("_id");
+    	private static final int THREAD_DATE = THREADS.indexOf("date");
+    	private static final int THREAD_RECIPIENTS = 
+    			THREADS.indexOf("recipient_ids");
+    	private static final int THREAD_SNIPPET = THREADS.indexOf("snippet");
+    	/* columns read from the recipient addresses */
+    	private static final Projection ADDRESSES = new Projection(
+    			"_id", "address");
+    	private static final int ADDRESS_ID = ADDRESSES.indexOf("_id");
+    	private static final int ADDRESS = ADDRESSES.indexOf("address");
+    	
+    	/* application context for the number index */
+    	private final Context context;
+    	/* content resolver used for querys */
+    	private final ContentResolver cr;
     	/* uri location of the sms message on the phone.
     	 * note that this is not standardized and there is no standard API
     	 * for handling SMS message so this may not be correct. 	 */
-    	private final Uri SMS_LOCATION;
+    	static final Uri SMS_LOCATION = Uri.parse("content://sms");
+    	/* same for conversations and the addresses of their recipients */
+    	static final Uri THREADS_LOCATION = Uri.parse(
+    			"content://mms-sms/conversations?simple=true");
+    	static final Uri ADDRESSES_LOCATION = Uri.parse(
+    			"content://mms-sms/canonical-addresses");
+    	/* true to list one row per conversation with an unknown sender 
+    	 * instead of every incoming message */
+    	private final boolean unknown_only;
+    	/* only texts older than this date, or as old with a lower row id, 
+    	 * are fetched */
+    	private final long before_date;
+    	private final long before_id;
+    	/* how far the page got */
+    	private final Page page = new Page();
     	
-    	public LoadMessages(ContentResolver c)
+    	/* texts waiting to be handed to the UI */
+    	private TextInfo[] batch = new TextInfo[BATCH_SIZE];
+    	private int in_batch;
+    	
+    	public LoadMessages(Context context, boolean unknown_only,
+    			long before_date, long before_id)
     	{
-    		this.cr = c;
-    		SMS_LOCATION = Uri.parse("content://sms");
+    		this.context = context;
+    		this.cr = context.getContentResolver();
+    		this.unknown_only = unknown_only;
+    		this.before_date = before_date;
+    		this.before_id = before_id;
+    		page.last_date = before_date;
+    		page.last_id = before_id;
     	}
     	
     	/**
-    	 * Task done in background to query the text messages and load a list
-    	 * of the most recent text messages.
+    	 * Task done in background to load a page of texts older than the 
+    	 * ones already loaded. Texts are published in batches of BATCH_SIZE
+    	 * as they are read.
+    	 * 
+    	 * Pages are fetched by date rather than by offset so the provider 
+    	 * only has to find one page worth of texts, however large the inbox.
+    	 * The row id breaks ties between texts with the same date.
     	 * 
-    	 * The return value of this method is passed to onPostExecute.
+    	 * @return how far the page got.
     	 */
 		@Override
-		protected ArrayList<TextInfo> doInBackground(Void... arg0) 
+		protected Page load() 
 		{
-			/* order the messages in decending order by date */
-			String sortOrder = "date COLLATE LOCALIZED DESC";
-			/* get only incoming messages */
-			String mask = "type='1'";
-			/* project over relevant columns of hte table */
-			String[] projection = {"body", "address", "date" };
-			/* query to get cursor over the resulting rows */
-			Cursor c = cr.query(SMS_LOCATION, projection, mask, null, sortOrder);
+			/* make sure the shared number index is current so names can
+			 * be filled in without querying per message */
+			PhoneIndex index = PhoneIndex.getInstance(context);
+			index.refresh();
 			
-			ArrayList<TextInfo> recentTexts = new ArrayList<TextInfo>(); 
+			long start = Metrics.start();
+			page.cnt = unknown_only ? readThreads(index) : readMessages(index);
+			Metrics.LOAD_TEXTS.stop(start, page.cnt, 0);
+			
+			/* and whatever is left over */
+			if( in_batch > 0 )
+			{
+				TextInfo[] rest = new TextInfo[in_batch];
+				System.arraycopy(batch, 0, rest, 0, in_batch);
+				publish(rest);
+			}
+			
+			return page;
+		}
+		
+		/**
+		 * Read a page of the most recent incoming text messages.
+		 * 
+		 * @return the number of messages read.
+		 */
+		private int readMessages(PhoneIndex index)
+		{
+			/* order the messages in decending order by date, a page at a 
+			 * time */
+			String sortOrder = "date DESC, _id DESC LIMIT " + PAGE_SIZE;
+			/* get only incoming messages older than the last page */
+			String mask = "type = 1 AND (date < ? OR (date = ? AND _id < ?))";
+			/* query to get cursor over the resulting rows */
+			Cursor c = query(cr, SMS_LOCATION, MESSAGES, mask, 
+					pageArgs(), sortOrder);
+			if( c == null )
+			{
+				return 0;
+			}
 
-			/* add at most 50 most recent text messages and create TextInfo
-			 * objects out of them to return.  */
+			/* add at most a page of the most recent text messages and 
+			 * create TextInfo objects out of them to show.  */
 			int cnt = 0;
-			while( c.moveToNext() && cnt < 50)
+			try
 			{
-				TextInfo ti = new TextInfo();
-				/* get the address which is the phone number then getName() to
-				 * try to load the actual name of that contact if it exists 
-				 * already */
-				ti.setName(getName(c.getString(c.getColumnIndex("address"))));
-				/* simply load the body of the text */
-				ti.setMsg(c.getString(c.getColumnIndex("body")));
-				recentTexts.add(ti);
-				cnt++;
+				Projection.Row row = MESSAGES.bind(c);
+				while( cnt < PAGE_SIZE && next(c) )
+				{
+					page.last_date = row.getLong(MESSAGE_DATE);
+					page.last_id = row.getLong(MESSAGE_ID);
+
+					/* get the address which is the phone number then look
+					 * up the actual name of that contact if it exists 
+					 * already. simply load the body of the text */
+					emit(index, row.getString(MESSAGE_ADDRESS), 
+							row.getString(MESSAGE_BODY));
+					cnt++;
+				}
 			}
-			
-			return recentTexts;
+			finally
+			{
+				c.close();
+			}
+			page.more = cnt == PAGE_SIZE;
+			return cnt;
 		}
-    	
+		
 		/**
-		 * get the name of a contact from phone number.
+		 * Read the most recent conversations until a page worth whose 
+		 * sender is not a contact yet have been found, or THREAD_SCAN 
+		 * conversations have been looked at. Each conversation is shown 
+		 * once with its latest snippet, so a busy conversation with a known
+		 * contact can not crowd out unknown senders.
 		 * 
-		 * @param number - number of contact. 
-		 * @return - name of contact if there exists a contact with that
-		 * name, otherwise returns input number.
+		 * Conversations with more than one recipient are group chats and
+		 * are skipped.
+		 * 
+		 * @return the number of conversations shown.
 		 */
-		private String getName(String number)
+		private int readThreads(PhoneIndex index)
 		{
-			/* get uri of phone numbers */
-			Uri phone_num_uri = Uri.withAppendedPath(ContactsContract.
-					PhoneLookup.CONTENT_FILTER_URI,Uri.encode(number));
-			/* get name column and query*/
-			String[] projection = {ContactsContract.
-					PhoneLookup.DISPLAY_NAME };
-			Cursor c = cr.query(phone_num_uri, projection,	
-					null, null, null);
+			/* newest first, spelled out since the paging depends on it */
+			String sortOrder = "date DESC, _id DESC LIMIT " + THREAD_SCAN;
+			String mask = "date < ? OR (date = ? AND _id < ?)";
+			Cursor c = query(cr, THREADS_LOCATION, THREADS, mask, 
+					pageArgs(), sortOrder);
+			if( c == null )
+			{
+				return 0;
+			}
 			
+			int cnt = 0;
+			/* conversations looked at and the last of them */
+			int scanned = 0;
+			long last_date = before_date;
+			long last_id = before_id;
+			/* date, row id, recipient id and snippet of each conversation 
+			 * in a chunk */
+			long[] dates = new long[THREAD_CHUNK];
+			long[] thread_ids = new long[THREAD_CHUNK];
+			String[] recipients = new String[THREAD_CHUNK];
+			String[] snippets = new String[THREAD_CHUNK];
 			try
 			{
-				/* check the first contact in the cursor, if none, return input. */ 
-				if(c.moveToFirst())
+				Projection.Row row = THREADS.bind(c);
+				/* recipients of every conversation are looked at but only
+				 * kept for the one to one ones */
+				Projection.Chars ids = new Projection.Chars(16);
+				boolean more = true;
+				while( more && cnt < PAGE_SIZE )
 				{
-					return c.getString(c.getColumnIndex(
-							ContactsContract.PhoneLookup.DISPLAY_NAME));
+					/* read a chunk of one to one conversations */
+					int in_chunk = 0;
+					while( in_chunk < THREAD_CHUNK && 
+							(more = next(c)) )
+					{
+						scanned++;
+						last_date = row.getLong(THREAD_DATE);
+						last_id = row.getLong(THREAD_ID);
+						String id = singleRecipient(
+								row.getChars(THREAD_RECIPIENTS, ids));
+						if( id == null )
+						{
+							continue;
+						}
+						dates[in_chunk] = last_date;
+						thread_ids[in_chunk] = last_id;
+						recipients[in_chunk] = id;
+						snippets[in_chunk] = row.getString(THREAD_SNIPPET);
+						in_chunk++;
+					}
+					
+					/* look up all their senders at once and keep those 
+					 * which are not contacts */
+					HashMap<String,String> addresses = 
+							getAddresses(recipients, in_chunk);
+					if( isCancelled() )
+					{
+						break;
+					}
+					for( int i = 0; i < in_chunk && cnt < PAGE_SIZE; i++ )
+					{
+						/* if the page fills up here the next one starts 
+						 * right after this conversation */
+						page.last_date = dates[i];
+						page.last_id = thread_ids[i];
+						
+						String address = addresses.get(recipients[i]);
+						if( address != null && !index.contains(address) )
+						{
+							emit(index, address, snippets[i]);
+							cnt++;
+						}
+					}
 				}
-				else
+			}
+			finally
+			{
+				c.close();
+			}
+			if( cnt < PAGE_SIZE )
+			{
+				/* the next page starts after every conversation looked 
+				 * at, skipped ones included */
+				page.last_date = last_date;
+				page.last_id = last_id;
+			}
+			page.more = cnt == PAGE_SIZE || scanned == THREAD_SCAN;
+			return cnt;
+		}
+		
+		/**
+		 * Look up the addresses of conversation recipients.
+		 * 
+		 * @param ids - canonical address ids of the recipients.
+		 * @param cnt - number of ids to look up.
+		 * @return map from id to address.
+		 */
+		private HashMap<String,String> getAddresses(String[] ids, int cnt)
+		{
+			HashMap<String,String> addresses = new HashMap<String,String>();
+			if( cnt == 0 )
+			{
+				return addresses;
+			}
+			
+			/* one query for the whole chunk */
+			StringBuilder mask = new StringBuilder("_id IN (");
+			for( int i = 0; i < cnt; i++ )
+			{
+				mask.append(i == 0 ? "?" : ",?");
+			}
+			mask.append(')');
+			String[] args = new String[cnt];
+			System.arraycopy(ids, 0, args, 0, cnt);
+			
+			Cursor c = query(cr, ADDRESSES_LOCATION, ADDRESSES, 
+					mask.toString(), args, null);
+			if( c == null )
+			{
+				return addresses;
+			}
+			try
+			{
+				Projection.Row row = ADDRESSES.bind(c);
+				while( next(c) )
 				{
-					return number;
+					addresses.put(row.getString(ADDRESS_ID), 
+							row.getString(ADDRESS));
 				}
 			}
 			finally
 			{
 				c.close();
 			}
+			return addresses;
 		}
 		
 		/**
-		 * Called when doInBackgroud returns with argument the return value 
-		 * of doInBackground.
+		 * @param ids - space separated recipient ids of a conversation.
+		 * @return the id of the only recipient, or null if there is none 
+		 * or more than one.
+		 */
+		private static String singleRecipient(CharSequence ids)
+		{
+			int start = 0;
+			int end = ids.length();
+			while( start < end && ids.charAt(start) == ' ' )
+			{
+				start++;
+			}
+			while( end > start && ids.charAt(end - 1) == ' ' )
+			{
+				end--;
+			}
+			for( int i = start; i < end; i++ )
+			{
+				if( ids.charAt(i) == ' ' )
+				{
+					return null;
+				}
+			}
+			return start == end ? null 
+					: ids.subSequence(start, end).toString();
+		}
+		
+		/**
+		 * @return selection arguments which page past the texts already
+		 * loaded.
+		 */
+		private String[] pageArgs()
+		{
+			return new String[] { Long.toString(before_date),
+					Long.toString(before_date), Long.toString(before_id) };
+		}
+		
+		/**
+		 * Create a TextInfo for a text and hand it to the UI once a full 
+		 * batch is ready.
 		 * 
-		 * Displays the list of recent texts and builds/assigns the onclick
-		 * listeners to call add contact methods.
+		 * @param address - the number the text came from.
+		 * @param msg - the body of the text.
 		 */
-		protected void onPostExecute(ArrayList<TextInfo> texts)
+		private void emit(PhoneIndex index, String address, String msg)
 		{
-	        setContentView(R.layout.activity_add_from_text);
-	        
-	        
-	        /* get the contact list view */
-	        final ListView lv1 = (ListView) findViewById(R.id.ListView01);
-	        lv1.setAdapter(new CustomTextBaseAdapter(AddFromText.this, texts));
-	        
-	        /* set onclick adapter for list items */
-	        lv1.setOnItemClickListener(new OnItemClickListener() {
+			TextInfo ti = new TextInfo();
+			String name = index.lookupName(address);
+			ti.setNumber(address);
+			ti.setName(name != null ? name : address);
+			ti.setMsg(msg);
+			
+			/* hand a full batch to the UI */
+			batch[in_batch++] = ti;
+			if( in_batch == BATCH_SIZE )
+			{
+				publish(batch);
+				batch = new TextInfo[BATCH_SIZE];
+				in_batch = 0;
+			}
+		}
+    }
+    
+    /**
+     * Display the list of recent texts and build/assign the onclick
+     * listeners to call add contact methods.
+     */
+    private void showList()
+    {
+        setContentView(R.layout.activity_add_from_text);
+        
+        /* get the contact list view */
+        final ListView lv = (ListView) findViewById(R.id.ListView01);
+        /* the loading row has to be added before the adapter is set */
+        footer = getLayoutInflater().inflate(R.layout.list_footer, lv, false);
+        lv.addFooterView(footer, null, false);
+        adapter = new CustomTextBaseAdapter(AddFromText.this);
+        lv.setAdapter(adapter);
+        
+        /* fetch the next page as the user nears the bottom */
+        lv.setOnScrollListener(new OnScrollListener()
+        {
+        	@Override
+        	public void onScroll(AbsListView view, int firstVisibleItem,
+        			int visibleItemCount, int totalItemCount) 
+        	{
+        		if( firstVisibleItem + visibleItemCount + PREFETCH 
+        				>= totalItemCount )
+        		{
+        			loadNextPage();
+        		}
+        	}
 
-	        	/**
-	        	 * method to double check that the user selected the desired 
-	        	 * text.
-	        	 */
-	            private void queryCorrectContact(final String name, 
-	            		final String msg)
-	            {
-	            	/* create an alert dialog */
-	            	AlertDialog.Builder builder = new AlertDialog.
-	            			Builder(AddFromText.this);
-	            	
-	            	/* build the alert */
-	            	builder.setMessage("Add contact "+ msg +"?")
-	            	       .setCancelable(false)
-	            	       /* yes-button code */
-	            	       .setPositiveButton("Yes", new DialogInterface.
-	            	    		   OnClickListener() 
-	            	       {
-	            	    	   /* user selected the correct contact so we
-	            	    	    * add the contact and pop a toast message.
-	            	    	    * then close the activity.
-	            	    	    */
-	            	           public void onClick(DialogInterface dialog, 
-	            	        		   int id) 
-	            	           {
-	            	        	   /* try to add contact and alert user if 
-	            	        	    * we fail with runtime. */
-	            	        	   try
-	            	        	   {
-	            	        		   Util.addContact(AddFromText.this, 
-	           	        					name, msg );
-	            	        		   /* try to send text and alert user
-	            	        		    * if we fail.    */
-	            	        		   try
-	            	        		   {
-	            	        			   Util.toast_msg(AddFromText.this, 
-	           	        					"Added Contact: "+msg);
-	            	        		   }
-	            	        		   catch(Exception e)
-	            	        		   {
-	            	        			   Util.toast_msg(AddFromText.this,
-	            	        					 "Failed to send name to" +
-	            	        					   "new contact.");
-	            	        		   }
-	            	        		  
-	            	        	   }
-	            	        	   catch(Exception e)
-	            	        	   {
-	            	        		   Util.toast_msg(AddFromText.this,
-	            	        				   "Failed to add contact.");
-	            	        	   }
-	            	        		  AddFromText.this.finish();
-	            	        		dialog.cancel();
-	            	           }
-	            	       })
-	            	       /* no-button code */
-	            	       .setNegativeButton("No", new DialogInterface.
-	            	    		   OnClickListener() 
-	            	       {
-	            	           public void onClick(DialogInterface dialog, 
-	            	        		   int id) 
-	            	           {
-	            	        	   /* change the button back to off and leave 
-	            	        	    * dialog */
-	            	                dialog.cancel();
-	            	           }
-	            	       });
-	            	
-	            	/* Build the alert and show it */
-	            	AlertDialog alert = builder.create();
-	            	alert.show();
-	            }
-	        	
-	            /**
-	             * Build the on click listener to check if the name of the 
-	             * text is a contact name or a phone number so we only add
-	             * new contacts. 
-	             */
-	        	@Override
+        	@Override
+        	public void onScrollStateChanged(AbsListView view, 
+        			int scrollState) 
+        	{
+        	}
+        });
+        
+        /* set onclick adapter for list items */
+        lv.setOnItemClickListener(new OnItemClickListener() {
+
+        	/**
+        	 * method to double check that the user selected the desired 
+        	 * text.
+        	 */
+            private void queryCorrectContact(final String number, 
+            		final String msg)
+            {
+            	/* create an alert dialog */
+            	AlertDialog.Builder builder = new AlertDialog.
+            			Builder(AddFromText.this);
+            	
+            	/* build the alert */
+            	builder.setMessage("Add contact "+ msg +"?")
+            	       .setCancelable(false)
+            	       /* yes-button code */
+            	       .setPositiveButton("Yes", new DialogInterface.
+            	    		   OnClickListener() 
+            	       {
+            	    	   /* user selected the correct contact so we
+            	    	    * queue the contact to be added, the writer
+            	    	    * pops a toast message once it is in. then 
+            	    	    * close the activity.
+            	    	    */
+            	           public void onClick(DialogInterface dialog, 
+            	        		   int id) 
+            	           {
+            	        	   ContactWriter.getInstance(AddFromText.this)
+            	        	   		.add(new NewContact(number, msg));
+            	        	   AddFromText.this.finish();
+            	        	   dialog.cancel();
+            	           }
+            	       })
+            	       /* no-button code */
+            	       .setNegativeButton("No", new DialogInterface.
+            	    		   OnClickListener() 
+            	       {
+            	           public void onClick(DialogInterface dialog, 
+            	        		   int id) 
+            	           {
+            	        	   /* change the button back to off and leave 
+            	        	    * dialog */
+            	                dialog.cancel();
+            	           }
+            	       });
+            	
+            	/* Build the alert and show it */
+            	AlertDialog alert = builder.create();
+            	alert.show();
+            }
+        	
+            /**
+             * Build the on click listener to check if the name of the 
+             * text is a contact name or a phone number so we only add
+             * new contacts. 
+             */
+        	@Override
 		        public void onItemClick(AdapterView<?> a, View v, int position,
 		        		long id) 
-	        	{
-	        		/* get TextInfo object represented by the list item */
-	        		TextInfo selected_text = (TextInfo) 
-	        				lv1.getItemAtPosition(position);
-	        		/* check if the name is actually a number of the name of
-	        		 * a preexisting contact */
-	        		if( Util.isInteger(selected_text.getName()) )
-	        		{
-	        			queryCorrectContact(selected_text.getName(), selected_text.getMsg());
-	        		}
-	        		else
-	        		{
-	        			Util.toast_msg(AddFromText.this,"Contact already exists: "+selected_text.getName());
-	        		}
-	        		
-	        	}  
-	        });			
-		}
+        	{
+        		/* get TextInfo object represented by the list item */
+        		TextInfo selected_text = (TextInfo) 
+        				lv.getItemAtPosition(position);
+        		/* texts from names like "AMAZON" can not be added */
+        		if( PhoneNumber.parse(selected_text.getNumber()) 
+        				== PhoneNumber.INVALID )
+        		{
+        			Util.toast_msg(AddFromText.this, "Not a phone number: "+selected_text.getName());
+        		}
+        		/* check if the number belongs to a preexisting contact */
+        		else if( !PhoneIndex.getInstance(AddFromText.this).contains(
+        				selected_text.getNumber()) )
+        		{
+        			queryCorrectContact(selected_text.getNumber(), selected_text.getMsg());
+        		}
+        		else
+        		{
+        			Util.toast_msg(AddFromText.this,"Contact already exists: "+selected_text.getName());
+        		}
+        		
+        	}  
+        });
     }
     
     /**
@@ -284,6 +737,7 @@ public class AddFromText extends Activity {
     {	
     	MenuInflater inflater = getMenuInflater();
     	inflater.inflate(R.menu.activity_menu, menu);
+    	DebugMetrics.addMenuItem(this, menu);
     	
     	/* create a set name option in the menu */
     	MenuItem setName = menu.getItem(1);
@@ -312,6 +766,24 @@ public class AddFromText extends Activity {
     	});
     	
     	
+    	/* option to only list conversations with unknown senders */
+    	inflater.inflate(R.menu.activity_add_from_text, menu);
+    	MenuItem unknown = menu.findItem(R.id.unknown_only);
+    	unknown.setChecked(unknown_only);
+    	unknown.setOnMenuItemClickListener(new OnMenuItemClickListener(){
+			@Override
+			public boolean onMenuItemClick(MenuItem item) 
+			{
+				/* remember the choice and reload the list */
+				unknown_only = !item.isChecked();
+				item.setChecked(unknown_only);
+				getSharedPreferences(TEXT_PREFS, 0).edit()
+						.putBoolean("unknown_only", unknown_only).apply();
+				loadFirstPage();
+				return true;
+			}
+    	});
+    	
         getMenuInflater().inflate(R.menu.activity_main, menu);
         return true;
     }
@@ -332,10 +804,21 @@ public class AddFromText extends Activity {
     	 
     	private LayoutInflater mInflater;
 
-    	public CustomTextBaseAdapter(Context context, ArrayList<TextInfo> results) {
-    		searchArrayList = results;
+    	public CustomTextBaseAdapter(Context context) {
+    		searchArrayList = new ArrayList<TextInfo>();
     		mInflater = LayoutInflater.from(context);
     	}
+    	
+    	/**
+    	 * Add texts to the bottom of the list.
+    	 */
+    	public void add(TextInfo[] texts) {
+    		searchArrayList.ensureCapacity(searchArrayList.size() + texts.length);
+    		for (TextInfo ti : texts) {
+    			searchArrayList.add(ti);
+    		}
+    		notifyDataSetChanged();
+    	}
 
     	public int getCount() {
     		return searchArrayList.size();
@@ -380,17 +863,23 @@ public class AddFromText extends Activity {
     /**
      * TextInfo
      *
-     * Object representing a text message storing the name of a prexisting
-     * contact or a number if no name is assigned to it as well as the 
-     * body of the message.
+     * Object representing a text message storing the number it came from,
+     * the name of a prexisting contact or that number if no name is 
+     * assigned to it as well as the body of the message.
      * 
      * @author Matt Dailey
      */
-    private class TextInfo
+    private static class TextInfo
     {
+    	private String number;
     	private String name;
     	private String msg;
     	
+    	public void setNumber(String n)
+    	{
+    		this.number = n;
+    	}
+    	
     	public void setMsg(String m)
     	{
     		this.msg = m;
@@ -401,6 +890,11 @@ public class AddFromText extends Activity {
     		this.name = n;
     	}
     	
+    	public String getNumber()
+    	{
+    		return this.number;
+    	}
+    	
     	public String getName()
     	{
     		return this.name;	
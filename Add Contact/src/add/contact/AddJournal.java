@@ -0,0 +1,287 @@
+package add.contact;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * AddJournal
+ * @author Matt
+ *
+ * Append only file of contacts waiting to be added, so a contact the user
+ * asked for is not lost if the app dies or the contacts provider fails
+ * before it is written. ContactWriter records a batch before writing it
+ * and marks each entry done or failed afterwards. Entries left over from
+ * an earlier run are handed back by open() to be written again.
+ *
+ * Records are written buffered and only reach the disk on sync(), which
+ * is called once per batch. Each record is a type byte then:
+ * 		ADD  - sequence number, phone number and name.
+ * 		DONE - sequence number of an entry which was written, or which
+ * 		       turned out not to be needed.
+ * 		FAIL - sequence number of an entry whose write failed.
+ * A record cut short by a crash ends the file and is ignored. An entry
+ * which failed MAX_ATTEMPTS times is dropped so one bad contact can not
+ * be retried forever.
+ *
+ * Not thread safe, ContactWriter only uses it from its writer thread.
+ */
+class AddJournal
+{
+	/* start of every journal file, followed by the format version */
+	private static final int MAGIC = 0x41444a4e;
+	private static final int VERSION = 1;
+
+	private static final byte ADD = 'A';
+	private static final byte DONE = 'D';
+	private static final byte FAIL = 'F';
+
+	/* writes of one entry to try before giving up on it */
+	static final int MAX_ATTEMPTS = 3;
+
+	/**
+	 * Entry
+	 *
+	 * A contact recorded in the journal which has not been written yet.
+	 */
+	static final class Entry
+	{
+		final long seq;
+		final NewContact contact;
+		/* failed writes so far */
+		int failures;
+
+		Entry(long seq, NewContact contact)
+		{
+			this.seq = seq;
+			this.contact = contact;
+		}
+	}
+
+	private final File file;
+	/* open for appending once the journal has been read, else null */
+	private FileOutputStream fos;
+	private DataOutputStream out;
+	/* true once the file has been read and compacted */
+	private boolean opened;
+	/* entries read by a write before open() was called, kept for it */
+	private List<Entry> unclaimed;
+
+	/* sequence number for the next entry */
+	private long next_seq;
+	/* entries added and not yet done, when none are left the file is
+	 * truncated */
+	private int outstanding;
+
+	AddJournal(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Read the journal left by earlier runs and rewrite it with only the
+	 * entries still waiting. The entries are only handed out once; if a
+	 * write had to read the file first they are kept for this call.
+	 *
+	 * @return the entries still waiting, oldest first.
+	 */
+	List<Entry> open() throws IOException
+	{
+		if (opened) {
+			List<Entry> left = unclaimed;
+			unclaimed = null;
+			return left == null ? new ArrayList<Entry>() : left;
+		}
+
+		LinkedHashMap<Long, Entry> waiting = read();
+		ArrayList<Entry> left = new ArrayList<Entry>(waiting.size());
+		for (Entry e : waiting.values()) {
+			if (e.failures < MAX_ATTEMPTS) {
+				left.add(e);
+			}
+		}
+		rewrite(left);
+		opened = true;
+		outstanding = left.size();
+		return left;
+	}
+
+	/**
+	 * Record a contact about to be written. It is not on disk until the
+	 * next sync().
+	 *
+	 * @return the sequence number of the new entry.
+	 */
+	long add(NewContact contact) throws IOException
+	{
+		DataOutputStream o = output();
+		long seq = next_seq++;
+		o.writeByte(ADD);
+		o.writeLong(seq);
+		o.writeUTF(contact.getPhone());
+		o.writeUTF(contact.getName());
+		outstanding++;
+		return seq;
+	}
+
+	/**
+	 * Record the outcome of writing an entry. It is not on disk until the
+	 * next sync().
+	 *
+	 * @param added - true if the contact is in the phone book now, false
+	 * if writing it failed and it should be tried again next run.
+	 */
+	void finish(long seq, boolean added) throws IOException
+	{
+		DataOutputStream o = output();
+		o.writeByte(added ? DONE : FAIL);
+		o.writeLong(seq);
+		if (added) {
+			outstanding--;
+		}
+	}
+
+	/**
+	 * Force everything recorded so far to disk. Once no entry is waiting
+	 * the file is emptied instead.
+	 */
+	void sync() throws IOException
+	{
+		if (out == null) {
+			return;
+		}
+		if (outstanding <= 0) {
+			/* nothing to keep, start again from an empty file */
+			outstanding = 0;
+			close();
+			rewrite(new ArrayList<Entry>());
+			return;
+		}
+		out.flush();
+		fos.getFD().sync();
+	}
+
+	/* the stream records are appended to, opening it if needed */
+	private DataOutputStream output() throws IOException
+	{
+		if (!opened) {
+			/* written before replay, it still wants the leftovers */
+			unclaimed = open();
+		}
+		if (out == null) {
+			fos = new FileOutputStream(file, true);
+			out = new DataOutputStream(new BufferedOutputStream(fos));
+		}
+		return out;
+	}
+
+	private void close() throws IOException
+	{
+		if (out != null) {
+			try {
+				out.close();
+			} finally {
+				out = null;
+				fos = null;
+			}
+		}
+	}
+
+	/**
+	 * Read every record in the journal file.
+	 *
+	 * @return entries which are not done by sequence number, oldest
+	 * first.
+	 */
+	private LinkedHashMap<Long, Entry> read() throws IOException
+	{
+		LinkedHashMap<Long, Entry> waiting = new LinkedHashMap<Long, Entry>();
+		HashMap<Long, Integer> failed = new HashMap<Long, Integer>();
+
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+		} catch (FileNotFoundException e) {
+			return waiting;
+		}
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				/* not ours, start again */
+				return waiting;
+			}
+			while (true) {
+				byte type = in.readByte();
+				long seq = in.readLong();
+				next_seq = Math.max(next_seq, seq + 1);
+				if (type == ADD) {
+					String phone = in.readUTF();
+					String name = in.readUTF();
+					waiting.put(seq,
+							new Entry(seq, new NewContact(phone, name)));
+				} else if (type == DONE) {
+					waiting.remove(seq);
+				} else if (type == FAIL) {
+					Integer n = failed.get(seq);
+					failed.put(seq, n == null ? 1 : n + 1);
+				} else {
+					/* garbage, keep what was read before it */
+					break;
+				}
+			}
+		} catch (EOFException e) {
+			/* end of the file, or a record cut short by a crash */
+		} finally {
+			in.close();
+		}
+
+		for (Entry e : waiting.values()) {
+			Integer n = failed.get(e.seq);
+			e.failures = n == null ? 0 : n;
+		}
+		return waiting;
+	}
+
+	/**
+	 * Replace the journal file with one holding just the given entries,
+	 * written to a new file first so a crash leaves one or the other.
+	 */
+	private void rewrite(List<Entry> entries) throws IOException
+	{
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream f = new FileOutputStream(tmp);
+		DataOutputStream o = new DataOutputStream(new BufferedOutputStream(f));
+		try {
+			o.writeInt(MAGIC);
+			o.writeInt(VERSION);
+			for (Entry e : entries) {
+				o.writeByte(ADD);
+				o.writeLong(e.seq);
+				o.writeUTF(e.contact.getPhone());
+				o.writeUTF(e.contact.getName());
+				for (int i = 0; i < e.failures; i++) {
+					o.writeByte(FAIL);
+					o.writeLong(e.seq);
+				}
+			}
+			o.flush();
+			f.getFD().sync();
+		} finally {
+			o.close();
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Unable to replace " + file);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package add.contact;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * AddResult
+ * @author Matt
+ *
+ * Outcome of adding a group of contacts with Util.addContacts. Contacts 
+ * are reported in the order they were passed in, each either added with
+ * the id of its new raw contact, a duplicate of a contact which was in
+ * the phone book already, or failed with the reason why.
+ */
+public class AddResult
+{
+	private final ArrayList<NewContact> contacts;
+	/* raw contact id of each added contact, or -1 if not known */
+	private final long[] ids;
+	private final boolean[] added;
+	/* true for contacts whose number was in the phone book already */
+	private final boolean[] duplicate;
+	/* reason each failed contact was not added */
+	private final Exception[] errors;
+	/* true if no contact group was found so nothing could be added */
+	private boolean no_account;
+
+	AddResult(Collection<NewContact> c)
+	{
+		this.contacts = new ArrayList<NewContact>(c);
+		this.ids = new long[contacts.size()];
+		this.added = new boolean[contacts.size()];
+		this.duplicate = new boolean[contacts.size()];
+		this.errors = new Exception[contacts.size()];
+	}
+
+	void setAdded(int i, long raw_contact_id)
+	{
+		added[i] = true;
+		ids[i] = raw_contact_id;
+		errors[i] = null;
+	}
+
+	void setFailed(int i, Exception e)
+	{
+		added[i] = false;
+		ids[i] = -1;
+		errors[i] = e;
+	}
+
+	void setDuplicate(int i)
+	{
+		added[i] = false;
+		duplicate[i] = true;
+		ids[i] = -1;
+		errors[i] = null;
+	}
+
+	void setNoAccount()
+	{
+		no_account = true;
+	}
+
+	/**
+	 * @return number of contacts which were requested.
+	 */
+	public int size()
+	{
+		return contacts.size();
+	}
+
+	public NewContact getContact(int i)
+	{
+		return contacts.get(i);
+	}
+
+	public boolean isAdded(int i)
+	{
+		return added[i];
+	}
+
+	/**
+	 * @return true if the contact was not added because its number was
+	 * in the phone book already.
+	 */
+	public boolean isDuplicate(int i)
+	{
+		return duplicate[i];
+	}
+
+	/**
+	 * @return the raw contact id the contact was added as, or -1 if it 
+	 * was not added or the id is not known.
+	 */
+	public long getRawContactId(int i)
+	{
+		return ids[i];
+	}
+
+	/**
+	 * @return why the contact was not added, null if it was added, is a
+	 * duplicate or nothing could be added because there is no contact 
+	 * group.
+	 */
+	public Exception getError(int i)
+	{
+		return errors[i];
+	}
+
+	/**
+	 * @return true if no valid contact group was found, in which case
+	 * no contact was added.
+	 */
+	public boolean isMissingAccount()
+	{
+		return no_account;
+	}
+
+	public int getAddedCount()
+	{
+		int cnt = 0;
+		for (boolean a : added) {
+			if (a) {
+				cnt++;
+			}
+		}
+		return cnt;
+	}
+}
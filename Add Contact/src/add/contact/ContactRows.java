@@ -0,0 +1,127 @@
+package add.contact;
+
+import java.util.Arrays;
+
+import android.database.Cursor;
+import android.provider.ContactsContract;
+
+/**
+ * ContactRows
+ * @author Matt
+ *
+ * Phone rows of contacts in parallel arrays: the row id, which orders 
+ * them by when they were added, and the contact id, name and lookup 
+ * key of the contact which owns the row.
+ */
+final class ContactRows
+{
+	/* columns to query for */
+	static final Projection COLUMNS = new Projection(
+			ContactsContract.Contacts._ID,
+			ContactsContract.CommonDataKinds.Phone.CONTACT_ID,
+			ContactsContract.Contacts.DISPLAY_NAME,
+			ContactsContract.Contacts.LOOKUP_KEY);
+	private static final int ROW_ID = 
+			COLUMNS.indexOf(ContactsContract.Contacts._ID);
+	private static final int CONTACT_ID = COLUMNS.indexOf(
+			ContactsContract.CommonDataKinds.Phone.CONTACT_ID);
+	private static final int NAME = 
+			COLUMNS.indexOf(ContactsContract.Contacts.DISPLAY_NAME);
+	private static final int KEY = 
+			COLUMNS.indexOf(ContactsContract.Contacts.LOOKUP_KEY);
+	
+	long[] rows;
+	long[] ids;
+	String[] names;
+	String[] keys;
+	int size;
+	
+	ContactRows( int capacity )
+	{
+		rows = new long[capacity];
+		ids = new long[capacity];
+		names = new String[capacity];
+		keys = new String[capacity];
+	}
+	
+	/**
+	 * Read up to max rows of a cursor over COLUMNS, then close it.
+	 * A null cursor reads nothing. Reading stops early if the job doing it
+	 * is cancelled.
+	 */
+	void read( Cursor c, int max, SharedLoader.Job<?, ?> job )
+	{
+		if( c == null )
+		{
+			return;
+		}
+		try
+		{
+			Projection.Row row = COLUMNS.bind(c);
+			while( size < max && job.next(c) )
+			{
+				add(row.getLong(ROW_ID), row.getLong(CONTACT_ID), 
+						row.getString(NAME), row.getString(KEY));
+			}
+		}
+		finally
+		{
+			c.close();
+		}
+	}
+	
+	/**
+	 * Add one row to the end.
+	 */
+	void add( long row, long id, String name, String key )
+	{
+		ensureCapacity(size + 1);
+		rows[size] = row;
+		ids[size] = id;
+		names[size] = name;
+		/* a contact with several numbers has a row for each, share one 
+		 * copy of its key between them */
+		keys[size] = key == null ? null : key.intern();
+		size++;
+	}
+	
+	/**
+	 * Add the rows of another set to the end of this one.
+	 */
+	void append( ContactRows other )
+	{
+		ensureCapacity(size + other.size);
+		System.arraycopy(other.rows, 0, rows, size, other.size);
+		System.arraycopy(other.ids, 0, ids, size, other.size);
+		System.arraycopy(other.names, 0, names, size, other.size);
+		System.arraycopy(other.keys, 0, keys, size, other.size);
+		size += other.size;
+	}
+	
+	/**
+	 * @return a copy of the first max rows.
+	 */
+	ContactRows head( int max )
+	{
+		int n = Math.min(size, max);
+		ContactRows copy = new ContactRows(Math.max(n, 1));
+		System.arraycopy(rows, 0, copy.rows, 0, n);
+		System.arraycopy(ids, 0, copy.ids, 0, n);
+		System.arraycopy(names, 0, copy.names, 0, n);
+		System.arraycopy(keys, 0, copy.keys, 0, n);
+		copy.size = n;
+		return copy;
+	}
+	
+	private void ensureCapacity( int cap )
+	{
+		if( cap > rows.length )
+		{
+			cap = Math.max(rows.length * 2, cap);
+			rows = Arrays.copyOf(rows, cap);
+			ids = Arrays.copyOf(ids, cap);
+			names = Arrays.copyOf(names, cap);
+			keys = Arrays.copyOf(keys, cap);
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package add.contact;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+import android.util.Log;
+
+/**
+ * ContactSnapshot
+ * @author Matt
+ *
+ * The newest contacts shown by ViewRecentContacts, saved to a file so the
+ * next launch can show them straight away instead of waiting on the
+ * contacts provider. The list on screen is then brought up to date in the
+ * background.
+ *
+ * The file is small and read by mapping it into memory. It holds:
+ * 		int   - MAGIC then VERSION.
+ * 		byte  - 1 if there are older contacts than the ones saved.
+ * 		int   - number of rows, at most MAX_ROWS.
+ * 		then for each row the row id and contact id as longs and the name
+ * 		and lookup key as a short length (-1 for null) and UTF-16 chars.
+ * Anything which does not read back cleanly is ignored.
+ */
+final class ContactSnapshot
+{
+	private static final String TAG = "ContactSnapshot";
+	private static final int MAGIC = 0x52435331;
+	private static final int VERSION = 1;
+
+	/* most rows saved, the rest are paged in as usual */
+	static final int MAX_ROWS = 200;
+
+	/* saves happen in order in the background */
+	private static final Executor writer = Scheduler.getInstance().serial(
+			Scheduler.Lane.MAINTENANCE, Scheduler.PRIORITY_NORMAL);
+
+	private final File file;
+	/* whether there were older contacts than the ones last read */
+	private boolean has_more;
+
+	ContactSnapshot(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Read the saved contacts. This is a read of a small local file and
+	 * is done on the UI thread so the list can be shown on first draw.
+	 *
+	 * @return the saved rows, newest first, or null if there is no usable
+	 * snapshot.
+	 */
+	ContactRows read()
+	{
+		RandomAccessFile raf;
+		try {
+			raf = new RandomAccessFile(file, "r");
+		} catch (IOException e) {
+			return null;
+		}
+		long start = Metrics.start();
+		try {
+			FileChannel ch = raf.getChannel();
+			MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0,
+					ch.size());
+			if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+				return null;
+			}
+			boolean more = b.get() != 0;
+			int n = b.getInt();
+			if (n < 0 || n > MAX_ROWS) {
+				return null;
+			}
+
+			ContactRows rows = new ContactRows(Math.max(n, 1));
+			char[] buf = new char[64];
+			for (int i = 0; i < n; i++) {
+				long row = b.getLong();
+				long id = b.getLong();
+				int len = b.getShort();
+				if (len > buf.length) {
+					buf = new char[len];
+				}
+				String name = readString(b, buf, len);
+				len = b.getShort();
+				if (len > buf.length) {
+					buf = new char[len];
+				}
+				String key = readString(b, buf, len);
+				rows.add(row, id, name, key);
+			}
+			has_more = more;
+			Metrics.SNAPSHOT_READ.stop(start, n, ch.size());
+			return rows;
+		} catch (BufferUnderflowException e) {
+			/* cut short, ignore it */
+			return null;
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to read " + file, e);
+			return null;
+		} finally {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				/* only read from it */
+			}
+		}
+	}
+
+	/**
+	 * @return true if there were older contacts than the ones last read.
+	 */
+	boolean hasMore()
+	{
+		return has_more;
+	}
+
+	/**
+	 * Save the newest MAX_ROWS rows in the background. The rows are copied
+	 * first so the caller may go on changing them.
+	 *
+	 * @param has_more - true if there are older contacts than the rows.
+	 */
+	void save(ContactRows rows, boolean has_more)
+	{
+		final ContactRows copy = rows.head(MAX_ROWS);
+		final boolean more = has_more || rows.size > MAX_ROWS;
+		writer.execute(new Runnable() {
+			@Override
+			public void run()
+			{
+				try {
+					write(copy, more);
+				} catch (IOException e) {
+					Log.w(TAG, "Unable to write " + file, e);
+				}
+			}
+		});
+	}
+
+	/* write to a new file then swap it in so a crash leaves one or the
+	 * other */
+	private void write(ContactRows rows, boolean more) throws IOException
+	{
+		long start = Metrics.start();
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream o = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)));
+		try {
+			o.writeInt(MAGIC);
+			o.writeInt(VERSION);
+			o.writeByte(more ? 1 : 0);
+			o.writeInt(rows.size);
+			for (int i = 0; i < rows.size; i++) {
+				o.writeLong(rows.rows[i]);
+				o.writeLong(rows.ids[i]);
+				writeString(o, rows.names[i]);
+				writeString(o, rows.keys[i]);
+			}
+		} finally {
+			o.close();
+		}
+		long size = tmp.length();
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Unable to replace " + file);
+		}
+		Metrics.SNAPSHOT_WRITE.stop(start, rows.size, size);
+	}
+
+	private static String readString(MappedByteBuffer b, char[] buf, int len)
+	{
+		if (len < 0) {
+			return null;
+		}
+		b.asCharBuffer().get(buf, 0, len);
+		b.position(b.position() + len * 2);
+		return new String(buf, 0, len);
+	}
+
+	private static void writeString(DataOutputStream o, String s)
+			throws IOException
+	{
+		if (s == null) {
+			o.writeShort(-1);
+			return;
+		}
+		int len = Math.min(s.length(), Short.MAX_VALUE);
+		o.writeShort(len);
+		for (int i = 0; i < len; i++) {
+			o.writeChar(s.charAt(i));
+		}
+	}
+}
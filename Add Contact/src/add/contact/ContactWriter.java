@@ -0,0 +1,303 @@
+package add.contact;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * ContactWriter
+ * @author Matt
+ *
+ * Background queue which writes new contacts to the phone book so the
+ * screens that add them never wait on the contacts provider.
+ *
+ * Writes happen one at a time on the INTERACTIVE lane of the Scheduler,
+ * since the user is usually waiting to hear the contact was added.
+ * Requests which arrive while a write is
+ * running are gathered up and written together with Util.addContacts. A
+ * request for a number which is already queued or being written is
+ * dropped so a double tap can not add the same contact twice. Numbers
+ * which do not parse can not be compared so they are never dropped.
+ *
+ * Every batch is recorded in an AddJournal before it is written, so
+ * contacts are not lost if the app dies or the provider fails part way.
+ * replay() picks up whatever an earlier run left in the journal.
+ *
+ * When a write finishes the user is told with a toast, since the screens
+ * that add contacts usually close straight away.
+ */
+public class ContactWriter
+{
+	private static final String TAG = "ContactWriter";
+	/* name of the journal file in the app's files directory */
+	private static final String JOURNAL_FILE = "add_journal";
+
+	/* the instance shared by all activities */
+	private static ContactWriter instance;
+
+	private final Context ctx;
+	/* runs the writes one at a time */
+	private final Executor executor = Scheduler.getInstance().serial(
+			Scheduler.Lane.INTERACTIVE, Scheduler.PRIORITY_NORMAL);
+	/* used to tell the user on the UI thread */
+	private final Handler main = new Handler(Looper.getMainLooper());
+
+	/* requests waiting to be written, by number key */
+	private final LinkedHashMap<Long, NewContact> pending =
+			new LinkedHashMap<Long, NewContact>();
+	/* number keys of requests being written right now */
+	private final HashSet<Long> writing = new HashSet<Long>();
+	/* journal entries of pending requests replayed from an earlier run,
+	 * by number key, so they are not recorded a second time */
+	private final HashMap<Long, Long> replayed = new HashMap<Long, Long>();
+	/* true while a drain of the pending requests is queued or running */
+	private boolean draining;
+	/* next key for a number which has none, counting down from -2 so
+	 * each stands alone */
+	private long next_unkeyed = -2;
+
+	/* only used by the serial writes */
+	private final AddJournal journal;
+
+	/**
+	 * Get the shared writer, creating it if needed.
+	 */
+	public static synchronized ContactWriter getInstance(Context ctx)
+	{
+		if (instance == null) {
+			instance = new ContactWriter(ctx.getApplicationContext());
+		}
+		return instance;
+	}
+
+	private ContactWriter(Context ctx)
+	{
+		this.ctx = ctx;
+		this.journal = new AddJournal(new File(ctx.getFilesDir(),
+				JOURNAL_FILE));
+	}
+
+	/**
+	 * Queue a contact to be added. Returns straight away.
+	 *
+	 * @return false if a contact with the same number is already queued
+	 * or being written, in which case this request is dropped.
+	 */
+	public synchronized boolean add(NewContact contact)
+	{
+		Long key = keyOf(contact.getPhone());
+		if (pending.containsKey(key) || writing.contains(key)) {
+			return false;
+		}
+		pending.put(key, contact);
+		startDrain();
+		return true;
+	}
+
+	/**
+	 * Queue any contacts left in the journal by an earlier run which never
+	 * finished writing them. Contacts which made it into the phone book
+	 * after all are only marked done. Returns straight away.
+	 */
+	public void replay()
+	{
+		executor.execute(new Runnable() {
+			@Override
+			public void run()
+			{
+				replayJournal();
+			}
+		});
+	}
+
+	/* runs in the writer */
+	private void replayJournal()
+	{
+		try {
+			List<AddJournal.Entry> left = journal.open();
+			if (left.isEmpty()) {
+				return;
+			}
+
+			/* the write may have gone through before the app died */
+			PhoneIndex index = PhoneIndex.getInstance(ctx);
+			index.refresh();
+			for (AddJournal.Entry e : left) {
+				Long key = keyOf(e.contact.getPhone());
+				boolean queued = false;
+				if (!index.contains(e.contact.getPhone())) {
+					synchronized (this) {
+						if (!pending.containsKey(key)
+								&& !writing.contains(key)) {
+							pending.put(key, e.contact);
+							replayed.put(key, Long.valueOf(e.seq));
+							queued = true;
+						}
+					}
+				}
+				if (!queued) {
+					journal.finish(e.seq, true);
+				}
+			}
+			journal.sync();
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to read the add journal", e);
+		}
+
+		synchronized (this) {
+			if (!pending.isEmpty()) {
+				startDrain();
+			}
+		}
+	}
+
+	/* the key a request is queued under, numbers which do not parse
+	 * (key -1) each get one of their own */
+	private synchronized Long keyOf(String phone)
+	{
+		long key = Util.numberKey(phone);
+		return Long.valueOf(key < 0 ? next_unkeyed-- : key);
+	}
+
+	/* queue a drain of the pending requests unless one is queued */
+	private synchronized void startDrain()
+	{
+		if (!draining) {
+			draining = true;
+			executor.execute(new Runnable() {
+				@Override
+				public void run()
+				{
+					drain();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Write pending requests until there are none left. Only one drain
+	 * runs at a time.
+	 */
+	private void drain()
+	{
+		while (true) {
+			/* take everything queued so far as one batch */
+			ArrayList<NewContact> batch;
+			ArrayList<Long> keys;
+			long[] seqs;
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					draining = false;
+					return;
+				}
+				batch = new ArrayList<NewContact>(pending.values());
+				keys = new ArrayList<Long>(pending.keySet());
+				writing.addAll(keys);
+				pending.clear();
+
+				seqs = new long[keys.size()];
+				for (int i = 0; i < seqs.length; i++) {
+					Long seq = replayed.remove(keys.get(i));
+					seqs[i] = seq == null ? -1 : seq.longValue();
+				}
+			}
+
+			/* record the batch so it survives a crash during the write */
+			try {
+				for (int i = 0; i < seqs.length; i++) {
+					if (seqs[i] < 0) {
+						seqs[i] = journal.add(batch.get(i));
+					}
+				}
+				journal.sync();
+			} catch (IOException e) {
+				/* still write the contacts, they are just not protected */
+				Log.w(TAG, "Unable to record contacts in the journal", e);
+			}
+
+			AddResult added;
+			long start = Metrics.start();
+			try {
+				added = Util.addContacts(ctx, batch);
+			} catch (RuntimeException e) {
+				/* do not let one bad batch stop the writer */
+				added = new AddResult(batch);
+				for (int i = 0; i < added.size(); i++) {
+					added.setFailed(i, e);
+				}
+			}
+			final AddResult result = added;
+			Metrics.WRITE_CONTACTS.stop(start, batch.size(), 0);
+
+			/* failed entries stay in the journal for the next run,
+			 * duplicates are as good as done */
+			try {
+				for (int i = 0; i < seqs.length; i++) {
+					if (seqs[i] >= 0) {
+						journal.finish(seqs[i], result.isAdded(i)
+								|| result.isDuplicate(i));
+					}
+				}
+				journal.sync();
+			} catch (IOException e) {
+				Log.w(TAG, "Unable to update the add journal", e);
+			}
+
+			/* make the new numbers known to every screen right away */
+			PhoneIndex index = PhoneIndex.getInstance(ctx);
+			for (int i = 0; i < result.size(); i++) {
+				if (result.isAdded(i)) {
+					NewContact c = result.getContact(i);
+					index.put(c.getPhone(), -1,
+							Util.capitalizeName(c.getName()));
+				}
+			}
+
+			synchronized (this) {
+				writing.removeAll(keys);
+			}
+
+			main.post(new Runnable() {
+				@Override
+				public void run()
+				{
+					deliver(result);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Tell the user about a finished write. Runs on the UI thread.
+	 */
+	private void deliver(AddResult result)
+	{
+		/* check to make sure such a group exists, if not alert the user */
+		if (result.isMissingAccount()) {
+			Util.toast_msg(ctx, "Unable to find valid contact group. " +
+					"This function may not work for you.");
+			return;
+		}
+		for (int i = 0; i < result.size(); i++) {
+			if (result.isAdded(i)) {
+				Util.toast_msg(ctx, "Added contact: " +
+						Util.capitalizeName(result.getContact(i).getName()));
+			} else if (result.isDuplicate(i)) {
+				Util.toast_msg(ctx, "Contact already exists: " +
+						result.getContact(i).getPhone());
+			} else {
+				Util.toast_msg(ctx, "Failed to create new contact.");
+			}
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package add.contact;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.MenuItem.OnMenuItemClickListener;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.Button;
+import android.widget.TextView;
+
+/**
+ * DebugMetrics
+ * @author Matt
+ *
+ * Debug screen showing the timings gathered by Metrics, with buttons to
+ * export them to a file in the app's files directory and to start them
+ * again from zero, say before timing one screen. It is reached from
+ * an entry in the shared options menu which only debuggable builds show,
+ * see addMenuItem().
+ */
+public class DebugMetrics extends Activity
+{
+	private static final String TAG = "DebugMetrics";
+
+	/**
+	 * Show and hook up the debug entry of the shared options menu if this
+	 * is a debuggable build. Call after inflating R.menu.activity_menu.
+	 */
+	static void addMenuItem(final Activity a, Menu menu)
+	{
+		MenuItem item = menu.findItem(R.id.debug_metrics);
+		if (item == null || (a.getApplicationInfo().flags
+				& ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+			return;
+		}
+		item.setVisible(true);
+		item.setOnMenuItemClickListener(new OnMenuItemClickListener() {
+			@Override
+			public boolean onMenuItemClick(MenuItem item)
+			{
+				Intent i = new Intent();
+				i.setClass(a, DebugMetrics.class);
+				a.startActivity(i);
+				return true;
+			}
+		});
+	}
+
+	@Override
+	public void onCreate(Bundle savedInstanceState)
+	{
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.activity_debug_metrics);
+
+		Button export = (Button) findViewById(R.id.metrics_export);
+		export.setOnClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View v)
+			{
+				export();
+			}
+		});
+
+		Button reset = (Button) findViewById(R.id.metrics_reset);
+		reset.setOnClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View v)
+			{
+				Metrics.reset();
+				((TextView) findViewById(R.id.metrics_text))
+						.setText(Metrics.report());
+			}
+		});
+	}
+
+	@Override
+	public void onResume()
+	{
+		super.onResume();
+		((TextView) findViewById(R.id.metrics_text))
+				.setText(Metrics.report());
+	}
+
+	/* Display no menu on this page */
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu)
+	{
+		return false;
+	}
+
+	/* write the file in the background and say where it went */
+	private void export()
+	{
+		final File dir = getFilesDir();
+		final Handler main = new Handler(Looper.getMainLooper());
+		final Context ctx = getApplicationContext();
+		Scheduler.getInstance().execute(Scheduler.Lane.MAINTENANCE,
+				Scheduler.PRIORITY_HIGH, new Runnable() {
+					@Override
+					public void run()
+					{
+						String msg;
+						try {
+							msg = "Metrics written to "
+									+ Metrics.export(dir);
+						} catch (IOException e) {
+							Log.w(TAG, "Unable to export metrics", e);
+							msg = "Unable to export metrics.";
+						}
+						final String done = msg;
+						main.post(new Runnable() {
+							@Override
+							public void run()
+							{
+								Util.toast_msg(ctx, done);
+							}
+						});
+					}
+				});
+	}
+}
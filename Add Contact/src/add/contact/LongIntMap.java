@@ -0,0 +1,128 @@
+package add.contact;
+
+import java.util.Arrays;
+
+/**
+ * LongIntMap
+ * @author Matt
+ *
+ * Small open addressing hash map from primitive long keys to int values.
+ * Used by the lookup structures in this package so that keys never have
+ * to be boxed or turned into Strings. Not thread safe, callers lock.
+ *
+ * Long.MIN_VALUE is reserved to mark empty slots and can not be a key.
+ */
+final class LongIntMap
+{
+	/* marker for an unused slot */
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] values;
+	/* number of keys stored */
+	private int size;
+	/* table length - 1, table length is always a power of two */
+	private int mask;
+
+	LongIntMap()
+	{
+		this(16);
+	}
+
+	LongIntMap(int expected)
+	{
+		/* size the table so it is at most half full */
+		int cap = 16;
+		while (cap < expected * 2) {
+			cap <<= 1;
+		}
+		allocate(cap);
+	}
+
+	/**
+	 * @return the value stored for key, or missing if there is none.
+	 */
+	int get(long key, int missing)
+	{
+		int i = slot(key);
+		return keys[i] == key ? values[i] : missing;
+	}
+
+	boolean containsKey(long key)
+	{
+		return keys[slot(key)] == key;
+	}
+
+	/**
+	 * Store a value for key, replacing any previous value.
+	 */
+	void put(long key, int value)
+	{
+		if (key == EMPTY) {
+			throw new IllegalArgumentException("reserved key");
+		}
+		int i = slot(key);
+		if (keys[i] != key) {
+			keys[i] = key;
+			size++;
+		}
+		values[i] = value;
+
+		/* keep the load factor under a half so probes stay short */
+		if (size * 2 > keys.length) {
+			rehash(keys.length << 1);
+		}
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	void clear()
+	{
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+
+	/* find the slot holding key or the empty slot where it would go */
+	private int slot(long key)
+	{
+		int i = hash(key) & mask;
+		while (keys[i] != EMPTY && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void rehash(int cap)
+	{
+		long[] old_keys = keys;
+		int[] old_values = values;
+		allocate(cap);
+		for (int i = 0; i < old_keys.length; i++) {
+			if (old_keys[i] != EMPTY) {
+				int j = slot(old_keys[i]);
+				keys[j] = old_keys[i];
+				values[j] = old_values[i];
+				size++;
+			}
+		}
+	}
+
+	private void allocate(int cap)
+	{
+		keys = new long[cap];
+		values = new int[cap];
+		Arrays.fill(keys, EMPTY);
+		mask = cap - 1;
+		size = 0;
+	}
+
+	/* spread the key bits, phone number keys are highly regular */
+	private static int hash(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
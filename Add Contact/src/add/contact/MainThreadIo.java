@@ -0,0 +1,459 @@
+package add.contact;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.content.res.Resources;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.util.Log;
+import android.util.Printer;
+
+/**
+ * MainThreadIo
+ * @author Matt
+ *
+ * Debug mode which keeps disk and provider I/O off the UI thread, or at
+ * least in sight. AddContactApp installs it in debuggable builds and in
+ * test runs.
+ *
+ * I/O on the UI thread is seen two ways:
+ *
+ * - Provider queries and batches and the contacts snapshot are timed by
+ *   Metrics. A run of one of those timers on the UI thread is charged as
+ *   long as it took.
+ * - Any other disk or network access is caught where StrictMode catches
+ *   it, in the thread's BlockGuard policy, which is wrapped so we hear of
+ *   it too. That only says an access is about to happen, not how long it
+ *   takes, so it is charged the rest of the UI thread message it happened
+ *   in, less any timed I/O in there. Outside a message, as when a test
+ *   drives a screen straight through its lifecycle, it is charged a flat
+ *   R.integer.main_thread_io_access_ms.
+ *
+ * Each charge goes to the screen in front and the innermost method of
+ * the app on the stack, which are counted and timed together. Each visit
+ * to a screen, from onResume to onPause, has a budget of UI thread I/O,
+ * R.integer.main_thread_io_budget_ms unless R.array.main_thread_io_budgets
+ * has one for the screen. Visits are only seen from version 14 on, older
+ * versions still get the counts.
+ *
+ * StrictMode logs each access with a stack trace as well. A visit over
+ * budget is logged as an error, or in fatal mode, for test runs, fails
+ * with an AssertionError.
+ *
+ * BlockGuard is not part of the SDK. If it can't be reached only the
+ * timed I/O is charged.
+ */
+final class MainThreadIo
+{
+	private static final String TAG = "MainThreadIo";
+
+	/* what StrictMode's BlockGuard policy detects, by bit in its mask */
+	private static final int DETECT_DISK_WRITE = 0x01;
+	private static final int DETECT_DISK_READ = 0x02;
+	private static final int DETECT_NETWORK = 0x04;
+
+	private static volatile boolean installed;
+	/* true to fail rather than log when a screen goes over budget */
+	private static volatile boolean fatal;
+
+	/* BlockGuard.Policy and the calls to get and set the UI thread's,
+	 * null if they are not there */
+	private static Class<?> policy_type;
+	private static Method get_policy;
+	private static Method set_policy;
+
+	/* only used on the UI thread: true while the Looper is dispatching a
+	 * message, when the first untimed access in it happened and where,
+	 * and the timed I/O since */
+	private static boolean in_message;
+	private static long first_access;
+	private static String access_site;
+	private static long timed_since;
+
+	/* everything below is guarded by the class lock, the report may be
+	 * read from a background thread */
+	/* screen in front, by class name */
+	private static String screen = "(none)";
+	/* UI thread I/O of the current visit, in nanoseconds */
+	private static long visit;
+	/* budget of screens not in budgets and the flat charge for an
+	 * access outside a message, in nanoseconds */
+	private static long default_budget;
+	private static long access_charge;
+	/* budgets by screen, in nanoseconds */
+	private static final HashMap<String, Long> budgets =
+			new HashMap<String, Long>();
+	/* worst visit to each screen, in nanoseconds */
+	private static final HashMap<String, Long> worst =
+			new HashMap<String, Long>();
+	/* charges and their total by screen and method */
+	private static final HashMap<String, long[]> sites =
+			new HashMap<String, long[]>();
+
+	private MainThreadIo()
+	{
+	}
+
+	/**
+	 * Turn on StrictMode for the UI thread and start charging its I/O to
+	 * screens. Call from Application.onCreate, which starts it over.
+	 *
+	 * @param fatal - true to fail rather than log when a screen goes over
+	 * its budget.
+	 */
+	static void install(Application app, boolean fatal)
+	{
+		readBudgets(app.getResources());
+		MainThreadIo.fatal = fatal;
+		StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+				.detectDiskReads()
+				.detectDiskWrites()
+				.detectNetwork()
+				.penaltyLog()
+				.build());
+		StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+				.detectLeakedSqlLiteObjects()
+				.penaltyLog()
+				.build());
+		findBlockGuard();
+		watchPolicy();
+		/* the messages the UI thread runs, to time accesses by */
+		Looper.getMainLooper().setMessageLogging(new Printer() {
+			@Override
+			public void println(String x)
+			{
+				if (x.startsWith(">>>>>")) {
+					messageStarted();
+				} else if (x.startsWith("<<<<<")) {
+					messageDone();
+				}
+			}
+		});
+		if (Build.VERSION.SDK_INT >= 14) {
+			watchScreens(app);
+		}
+		installed = true;
+	}
+
+	/**
+	 * Charge a run of an I/O timer, if it was on the UI thread.
+	 */
+	static void charge(long nanos)
+	{
+		if (!installed || Looper.myLooper() != Looper.getMainLooper()) {
+			return;
+		}
+		if (first_access != 0) {
+			timed_since += nanos;
+		}
+		record(site(), 1, nanos);
+	}
+
+	/**
+	 * @return the worst visit to a screen so far in nanoseconds, or -1
+	 * if it has not been left yet.
+	 */
+	static synchronized long getWorstVisit(Class<? extends Activity> screen)
+	{
+		Long w = worst.get(screen.getSimpleName());
+		return w == null ? -1 : w.longValue();
+	}
+
+	/**
+	 * @return the UI thread I/O allowed per visit to a screen, in
+	 * nanoseconds.
+	 */
+	static synchronized long getBudget(Class<? extends Activity> screen)
+	{
+		return budgetNanos(screen.getSimpleName());
+	}
+
+	/**
+	 * @return UI thread I/O by screen and method, or an empty string if
+	 * the mode is not installed.
+	 */
+	static synchronized String report()
+	{
+		if (!installed) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder("UI thread I/O:\n");
+		for (Map.Entry<String, long[]> e : sites.entrySet()) {
+			long[] site = e.getValue();
+			sb.append(String.format("%-50s %6d %8.1f ms\n", e.getKey(),
+					site[0], site[1] / 1e6));
+		}
+		for (Map.Entry<String, Long> e : worst.entrySet()) {
+			sb.append(String.format("worst visit to %s %.1f ms of %d\n",
+					e.getKey(), e.getValue() / 1e6,
+					budgetNanos(e.getKey()) / 1000000));
+		}
+		return sb.toString();
+	}
+
+	/* start over with the budgets in the app's resources, each entry of
+	 * the array is "Screen:ms" */
+	private static synchronized void readBudgets(Resources r)
+	{
+		screen = "(none)";
+		visit = 0;
+		worst.clear();
+		sites.clear();
+		budgets.clear();
+		default_budget = r.getInteger(R.integer.main_thread_io_budget_ms)
+				* 1000000L;
+		access_charge = r.getInteger(R.integer.main_thread_io_access_ms)
+				* 1000000L;
+		for (String budget : r.getStringArray(R.array.main_thread_io_budgets)) {
+			int colon = budget.indexOf(':');
+			budgets.put(budget.substring(0, colon).trim(), Long.valueOf(
+					Long.parseLong(budget.substring(colon + 1).trim())
+							* 1000000L));
+		}
+	}
+
+	private static void findBlockGuard()
+	{
+		try {
+			Class<?> block_guard = Class.forName("dalvik.system.BlockGuard");
+			policy_type = Class.forName("dalvik.system.BlockGuard$Policy");
+			get_policy = block_guard.getMethod("getThreadPolicy");
+			set_policy = block_guard.getMethod("setThreadPolicy",
+					policy_type);
+		} catch (Exception e) {
+			Log.w(TAG, "No BlockGuard, only timed I/O is charged", e);
+			policy_type = null;
+		}
+	}
+
+	/* wrap the UI thread's BlockGuard policy, again if StrictMode has
+	 * put in a new one since */
+	private static void watchPolicy()
+	{
+		if (policy_type == null) {
+			return;
+		}
+		try {
+			Object policy = get_policy.invoke(null);
+			if (policy == null || (Proxy.isProxyClass(policy.getClass())
+					&& Proxy.getInvocationHandler(policy) instanceof Watcher)) {
+				return;
+			}
+			set_policy.invoke(null, Proxy.newProxyInstance(
+					policy_type.getClassLoader(), new Class<?>[] { policy_type },
+					new Watcher(policy)));
+		} catch (Exception e) {
+			Log.w(TAG, "Can't watch BlockGuard, only timed I/O is charged",
+					e);
+			policy_type = null;
+		}
+	}
+
+	/**
+	 * Watcher
+	 *
+	 * Stands in for StrictMode's BlockGuard policy on the UI thread, notes
+	 * the accesses it would catch and passes every call on to it.
+	 */
+	private static final class Watcher implements InvocationHandler
+	{
+		private final Object policy;
+		private final Method mask;
+
+		Watcher(Object policy) throws NoSuchMethodException
+		{
+			this.policy = policy;
+			this.mask = policy_type.getMethod("getPolicyMask");
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method m, Object[] args)
+				throws Throwable
+		{
+			String name = m.getName();
+			int detect = name.equals("onReadFromDisk") ? DETECT_DISK_READ
+					: name.equals("onWriteToDisk") ? DETECT_DISK_WRITE
+					: name.equals("onNetwork") ? DETECT_NETWORK : 0;
+			/* only what StrictMode would catch, not what it was told to
+			 * let through */
+			if (detect != 0
+					&& (((Integer) mask.invoke(policy)).intValue() & detect) != 0) {
+				access();
+			}
+			try {
+				return m.invoke(policy, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	/* an untimed access on the UI thread */
+	private static void access()
+	{
+		String site = site();
+		if (!in_message) {
+			record(site, 1, access_charge);
+			return;
+		}
+		/* counted now, charged when the message is done */
+		if (first_access == 0) {
+			first_access = System.nanoTime();
+			access_site = site;
+			timed_since = 0;
+		}
+		record(site, 1, 0);
+	}
+
+	private static void messageStarted()
+	{
+		in_message = true;
+		first_access = 0;
+		watchPolicy();
+	}
+
+	private static void messageDone()
+	{
+		in_message = false;
+		if (first_access != 0) {
+			long nanos = System.nanoTime() - first_access - timed_since;
+			if (nanos > 0) {
+				record(access_site, 0, nanos);
+			}
+			first_access = 0;
+		}
+	}
+
+	private static synchronized void record(String key, int cnt, long nanos)
+	{
+		visit += nanos;
+		long[] site = sites.get(key);
+		if (site == null) {
+			site = new long[2];
+			sites.put(key, site);
+		}
+		site[0] += cnt;
+		site[1] += nanos;
+	}
+
+	@TargetApi(14)
+	private static void watchScreens(Application app)
+	{
+		app.registerActivityLifecycleCallbacks(
+				new Application.ActivityLifecycleCallbacks() {
+					@Override
+					public void onActivityResumed(Activity a)
+					{
+						/* the visit began when the last one ended, or
+						 * when the screen was created */
+						setScreen(a, false);
+					}
+
+					@Override
+					public void onActivityPaused(Activity a)
+					{
+						visitDone(a.getClass().getSimpleName());
+					}
+
+					@Override
+					public void onActivityCreated(Activity a, Bundle b)
+					{
+						/* onCreate runs before onResume, charge it to the
+						 * screen being created */
+						setScreen(a, true);
+					}
+
+					@Override
+					public void onActivityStarted(Activity a)
+					{
+					}
+
+					@Override
+					public void onActivityStopped(Activity a)
+					{
+					}
+
+					@Override
+					public void onActivitySaveInstanceState(Activity a,
+							Bundle b)
+					{
+					}
+
+					@Override
+					public void onActivityDestroyed(Activity a)
+					{
+					}
+				});
+	}
+
+	private static void setScreen(Activity a, boolean fresh)
+	{
+		/* launching a screen may have set a new thread policy */
+		watchPolicy();
+		synchronized (MainThreadIo.class) {
+			screen = a.getClass().getSimpleName();
+			if (fresh) {
+				visit = 0;
+			}
+		}
+	}
+
+	private static synchronized void visitDone(String name)
+	{
+		Long w = worst.get(name);
+		if (w == null || visit > w.longValue()) {
+			worst.put(name, Long.valueOf(visit));
+		}
+		if (visit > budgetNanos(name)) {
+			String msg = overBudget(name, visit);
+			visit = 0;
+			if (fatal) {
+				throw new AssertionError(msg + "\n" + report());
+			}
+			Log.e(TAG, msg);
+		}
+		visit = 0;
+	}
+
+	private static long budgetNanos(String name)
+	{
+		Long nanos = budgets.get(name);
+		return nanos == null ? default_budget : nanos.longValue();
+	}
+
+	private static String overBudget(String name, long nanos)
+	{
+		return String.format("%s did %.1f ms of I/O on the UI thread, "
+				+ "its budget is %d ms", name, nanos / 1e6,
+				budgetNanos(name) / 1000000);
+	}
+
+	/* the screen in front and the innermost method of the app below us */
+	private static String site()
+	{
+		String method = "(framework)";
+		for (StackTraceElement e : new Throwable().getStackTrace()) {
+			String cls = e.getClassName();
+			if (cls.startsWith("add.contact.")
+					&& !cls.startsWith(MainThreadIo.class.getName())
+					&& !cls.startsWith(Metrics.class.getName())) {
+				method = cls.substring(cls.lastIndexOf('.') + 1) + "."
+						+ e.getMethodName();
+				break;
+			}
+		}
+		synchronized (MainThreadIo.class) {
+			return screen + " " + method;
+		}
+	}
+}
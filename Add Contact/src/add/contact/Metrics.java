@@ -0,0 +1,247 @@
+package add.contact;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics
+ * @author Matt
+ *
+ * Timings of the app's slow paths, so complaints like "Add from Text is
+ * slow" come with numbers. Each path has a Timer which is handed the
+ * start time of a run when it ends:
+ *
+ * 		long start = Metrics.start();
+ * 		... query ...
+ * 		Metrics.QUERY.stop(start);
+ *
+ * Timers are a handful of atomic counters, cheap enough to leave on in
+ * every build. Besides the latency histogram a run may record the rows it
+ * read and its size; what size means is given for each timer below.
+ * Runs of the I/O timers on the UI thread are also charged to the screen
+ * in front, see MainThreadIo.
+ *
+ * The numbers can be seen on the DebugMetrics screen, from a hidden entry
+ * in the options menu of debuggable builds, and exported to a file there.
+ */
+final class Metrics
+{
+	/* every provider query, until the cursor is returned */
+	static final Timer QUERY = new Timer("query", true);
+	/* every applyBatch call, size is the number of operations */
+	static final Timer APPLY_BATCH = new Timer("applyBatch", true);
+	/* a text from sending until every part reported, size is characters */
+	static final Timer SMS_SEND = new Timer("sms send");
+	/* loader phases, rows are the rows read */
+	static final Timer LOAD_CONTACTS = new Timer("load contacts");
+	static final Timer REFRESH_CONTACTS = new Timer("refresh contacts");
+	static final Timer INDEX_NAMES = new Timer("index names");
+	static final Timer LOAD_TEXTS = new Timer("load texts");
+	static final Timer PHONE_INDEX = new Timer("phone index refresh");
+	/* one batch of contact writes, rows are the contacts */
+	static final Timer WRITE_CONTACTS = new Timer("write contacts");
+	/* the saved contacts file, size is bytes */
+	static final Timer SNAPSHOT_READ = new Timer("snapshot read", true);
+	static final Timer SNAPSHOT_WRITE = new Timer("snapshot write", true);
+
+	private static final Timer[] ALL = new Timer[] {
+			QUERY, APPLY_BATCH, SMS_SEND, LOAD_CONTACTS, REFRESH_CONTACTS,
+			INDEX_NAMES, LOAD_TEXTS, PHONE_INDEX, WRITE_CONTACTS,
+			SNAPSHOT_READ, SNAPSHOT_WRITE
+	};
+
+	/* name of the exported file in the app's files directory */
+	static final String EXPORT_FILE = "metrics.txt";
+
+	private Metrics()
+	{
+	}
+
+	/**
+	 * @return the start time of a run, to hand to Timer.stop().
+	 */
+	static long start()
+	{
+		return System.nanoTime();
+	}
+
+	/**
+	 * @return a table of every timer and the scheduler's lanes.
+	 */
+	static String report()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-20s %6s %8s %8s %8s %8s %8s %9s %9s\n",
+				"", "count", "mean ms", "p50", "p90", "p99", "max",
+				"rows", "size"));
+		for (Timer t : ALL) {
+			long n = t.count.get();
+			sb.append(String.format(
+					"%-20s %6d %8.1f %8.1f %8.1f %8.1f %8.1f %9d %9d\n",
+					t.name, n, n == 0 ? 0.0 : ms(t.total.get()) / n,
+					ms(t.percentile(50)), ms(t.percentile(90)),
+					ms(t.percentile(99)), ms(t.max.get()), t.rows.get(),
+					t.size.get()));
+		}
+		sb.append('\n');
+		Scheduler s = Scheduler.getInstance();
+		for (Scheduler.Lane lane : Scheduler.Lane.values()) {
+			sb.append(s.getStats(lane)).append('\n');
+		}
+		sb.append('\n').append(MainThreadIo.report());
+		return sb.toString();
+	}
+
+	/**
+	 * Write the report and the raw histograms to EXPORT_FILE. Does file
+	 * I/O, do not call on the UI thread.
+	 *
+	 * @return the file written.
+	 */
+	static File export(File dir) throws IOException
+	{
+		File file = new File(dir, EXPORT_FILE);
+		Writer w = new FileWriter(file);
+		try {
+			w.write("# " + new Date() + "\n");
+			w.write(report());
+			/* one line per non empty bucket: timer, upper bound in
+			 * microseconds, count */
+			w.write("\n# timer,upper_us,count\n");
+			for (Timer t : ALL) {
+				for (int b = 0; b < Timer.BUCKETS; b++) {
+					long c = t.buckets.get(b);
+					if (c > 0) {
+						w.write(t.name + "," + (1L << b) + "," + c + "\n");
+					}
+				}
+			}
+		} finally {
+			w.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Start every timer from zero.
+	 */
+	static void reset()
+	{
+		for (Timer t : ALL) {
+			t.reset();
+		}
+	}
+
+	private static double ms(long nanos)
+	{
+		return nanos / 1e6;
+	}
+
+	/**
+	 * Timer
+	 *
+	 * Latency histogram and totals of one path. Safe to use from any
+	 * thread without locking.
+	 */
+	static final class Timer
+	{
+		/* bucket b counts runs which took under 2^b microseconds, the
+		 * last one everything longer */
+		static final int BUCKETS = 32;
+
+		final String name;
+		/* true if a run is provider or disk I/O */
+		final boolean io;
+		final AtomicLong count = new AtomicLong();
+		/* in nanoseconds */
+		final AtomicLong total = new AtomicLong();
+		final AtomicLong max = new AtomicLong();
+		final AtomicLong rows = new AtomicLong();
+		final AtomicLong size = new AtomicLong();
+		final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+		private Timer(String name)
+		{
+			this(name, false);
+		}
+
+		private Timer(String name, boolean io)
+		{
+			this.name = name;
+			this.io = io;
+		}
+
+		/**
+		 * Record a run which started at start.
+		 */
+		void stop(long start)
+		{
+			stop(start, 0, 0);
+		}
+
+		/**
+		 * Record a run which started at start, read rows rows and had the
+		 * given size.
+		 */
+		void stop(long start, long rows, long size)
+		{
+			long nanos = System.nanoTime() - start;
+			if (io) {
+				MainThreadIo.charge(nanos);
+			}
+			count.incrementAndGet();
+			total.addAndGet(nanos);
+			long m = max.get();
+			while (nanos > m && !max.compareAndSet(m, nanos)) {
+				m = max.get();
+			}
+			if (rows != 0) {
+				this.rows.addAndGet(rows);
+			}
+			if (size != 0) {
+				this.size.addAndGet(size);
+			}
+			long micros = nanos / 1000;
+			int b = 64 - Long.numberOfLeadingZeros(micros);
+			buckets.incrementAndGet(Math.min(b, BUCKETS - 1));
+		}
+
+		/**
+		 * @return the upper bound of the bucket holding the p-th
+		 * percentile run, in nanoseconds, or 0 if there are none.
+		 */
+		long percentile(int p)
+		{
+			long n = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				n += buckets.get(b);
+			}
+			long want = (n * p + 99) / 100;
+			long seen = 0;
+			for (int b = 0; b < BUCKETS && want > 0; b++) {
+				seen += buckets.get(b);
+				if (seen >= want) {
+					return (1L << b) * 1000;
+				}
+			}
+			return 0;
+		}
+
+		private void reset()
+		{
+			count.set(0);
+			total.set(0);
+			max.set(0);
+			rows.set(0);
+			size.set(0);
+			for (int b = 0; b < BUCKETS; b++) {
+				buckets.set(b, 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,360 @@
+package add.contact;
+
+import java.util.Arrays;
+
+/**
+ * NameIndex
+ * @author Matt
+ *
+ * In memory search index over a list of names, used to filter the recent
+ * contacts list as the user types without asking the contacts provider.
+ *
+ * Names are added in list order and searched by the words of a query.
+ * Every query word has to be found in the name: words of one or two
+ * characters must start a word of the name ("jo" finds "John Smith"),
+ * longer ones may appear anywhere in it ("mit" finds it too). Case is
+ * ignored and anything which is not a letter or digit separates words.
+ *
+ * Short words are looked up by word prefix, longer ones by the trigrams
+ * (runs of three characters) of the name. Each prefix and trigram has a
+ * posting list of the positions of the names holding it, kept in
+ * increasing order since names are only ever added at the end. A search
+ * intersects the shortest lists first, then checks what is left against
+ * the name itself since sharing trigrams does not make a match. Results
+ * come out in list order.
+ *
+ * Not thread safe. Results are kept in a buffer owned by the index which
+ * is reused by the next search.
+ */
+final class NameIndex
+{
+	/* grams are packed into a long: up to three 16 bit chars and their
+	 * count in the bits above */
+	private static final int COUNT_SHIFT = 48;
+
+	/* gram -> posting list */
+	private final LongIntMap grams = new LongIntMap(256);
+	private int[][] postings = new int[64][];
+	private int[] posting_sizes = new int[64];
+	private int posting_count;
+
+	/* each name as it was folded for searching */
+	private char[][] folded = new char[64][];
+	private int size;
+
+	/* last search results, and scratch for intersecting lists */
+	private int[] results = new int[64];
+	private int[] scratch = new int[64];
+	/* query words being searched for */
+	private char[][] words = new char[4][];
+	private int[] word_lengths = new int[4];
+	/* folded query */
+	private char[] query = new char[32];
+
+	/**
+	 * @return number of names added.
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Forget every name.
+	 */
+	void clear()
+	{
+		grams.clear();
+		Arrays.fill(postings, 0, posting_count, null);
+		posting_count = 0;
+		Arrays.fill(folded, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * Add the next name, its position is the number of names added before
+	 * it. A null name can not be found.
+	 */
+	void add(CharSequence name)
+	{
+		int pos = size;
+		if (size == folded.length) {
+			folded = Arrays.copyOf(folded, size * 2);
+		}
+		char[] f = fold(name);
+		folded[size++] = f;
+
+		/* prefixes of one and two chars of every word */
+		for (int i = 0; i < f.length; i++) {
+			if (f[i] == ' ' || (i > 0 && f[i - 1] != ' ')) {
+				continue;
+			}
+			post(gram(f, i, 1), pos);
+			if (i + 1 < f.length && f[i + 1] != ' ') {
+				post(gram(f, i, 2), pos);
+			}
+		}
+
+		/* trigrams inside every word */
+		for (int i = 0; i + 2 < f.length; i++) {
+			if (f[i] != ' ' && f[i + 1] != ' ' && f[i + 2] != ' ') {
+				post(gram(f, i, 3), pos);
+			}
+		}
+	}
+
+	/**
+	 * Find the names matching a query. A query with no words matches
+	 * every name.
+	 *
+	 * @return the number of matches, their positions are at the start of
+	 * getResults() in increasing order.
+	 */
+	int search(CharSequence q)
+	{
+		int n = splitQuery(q);
+		if (n == 0) {
+			ensureResults(size);
+			for (int i = 0; i < size; i++) {
+				results[i] = i;
+			}
+			return size;
+		}
+
+		/* candidates from the posting lists of every word's grams */
+		int count = -1;
+		for (int w = 0; w < n && count != 0; w++) {
+			char[] word = words[w];
+			int len = word_lengths[w];
+			if (len <= 2) {
+				count = intersect(gram(word, 0, len), count);
+			} else {
+				for (int i = 0; i + 2 < len && count != 0; i++) {
+					count = intersect(gram(word, i, 3), count);
+				}
+			}
+		}
+
+		/* drop names which only share grams with a long word */
+		int kept = 0;
+		for (int r = 0; r < count; r++) {
+			int pos = results[r];
+			boolean match = true;
+			for (int w = 0; w < n && match; w++) {
+				if (word_lengths[w] > 2) {
+					match = contains(folded[pos], words[w], word_lengths[w]);
+				}
+			}
+			if (match) {
+				results[kept++] = pos;
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * @return the buffer the last search wrote its results to.
+	 */
+	int[] getResults()
+	{
+		return results;
+	}
+
+	/* add a position to the end of a gram's posting list */
+	private void post(long gram, int pos)
+	{
+		int p = grams.get(gram, -1);
+		if (p < 0) {
+			if (posting_count == postings.length) {
+				postings = Arrays.copyOf(postings, posting_count * 2);
+				posting_sizes = Arrays.copyOf(posting_sizes,
+						posting_count * 2);
+			}
+			p = posting_count++;
+			postings[p] = new int[4];
+			posting_sizes[p] = 0;
+			grams.put(gram, p);
+		}
+
+		int[] list = postings[p];
+		int n = posting_sizes[p];
+		/* a name with a gram twice is only listed once */
+		if (n > 0 && list[n - 1] == pos) {
+			return;
+		}
+		if (n == list.length) {
+			list = postings[p] = Arrays.copyOf(list, n * 2);
+		}
+		list[n] = pos;
+		posting_sizes[p] = n + 1;
+	}
+
+	/**
+	 * Intersect the current results with the posting list of a gram.
+	 *
+	 * @param count - number of current results, or -1 if there are none
+	 * yet and the list is taken as it is.
+	 * @return the new number of results.
+	 */
+	private int intersect(long gram, int count)
+	{
+		int p = grams.get(gram, -1);
+		if (p < 0) {
+			return 0;
+		}
+		int[] list = postings[p];
+		int n = posting_sizes[p];
+
+		if (count < 0) {
+			ensureResults(n);
+			System.arraycopy(list, 0, results, 0, n);
+			return n;
+		}
+
+		/* both lists are sorted, walk them together */
+		int kept = 0;
+		int i = 0;
+		int j = 0;
+		while (i < count && j < n) {
+			int a = results[i];
+			int b = list[j];
+			if (a == b) {
+				scratch[kept++] = a;
+				i++;
+				j++;
+			} else if (a < b) {
+				i++;
+			} else {
+				j = skip(list, j, n, a);
+			}
+		}
+		int[] t = results;
+		results = scratch;
+		scratch = t;
+		return kept;
+	}
+
+	/* first index at or after from in list[0..n) holding a value >= target,
+	 * galloping so a long list is crossed quickly */
+	private static int skip(int[] list, int from, int n, int target)
+	{
+		int step = 1;
+		int lo = from;
+		int hi = from + 1;
+		while (hi < n && list[hi] < target) {
+			lo = hi;
+			step <<= 1;
+			hi = from + step;
+		}
+		if (hi > n) {
+			hi = n;
+		}
+		/* list[lo] < target, find the first >= target in (lo, hi] */
+		while (lo + 1 < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (list[mid] < target) {
+				lo = mid;
+			} else {
+				hi = mid;
+			}
+		}
+		return hi;
+	}
+
+	/* fold the query into words, returns the number of words */
+	private int splitQuery(CharSequence q)
+	{
+		int len = q == null ? 0 : q.length();
+		if (query.length < len) {
+			query = new char[len];
+		}
+		int n = 0;
+		int start = -1;
+		for (int i = 0; i <= len; i++) {
+			char c = i < len ? foldChar(q.charAt(i)) : ' ';
+			if (c != ' ') {
+				query[i] = c;
+				if (start < 0) {
+					start = i;
+				}
+			} else if (start >= 0) {
+				if (n == words.length) {
+					words = Arrays.copyOf(words, n * 2);
+					word_lengths = Arrays.copyOf(word_lengths, n * 2);
+				}
+				int wl = i - start;
+				if (words[n] == null || words[n].length < wl) {
+					words[n] = new char[Math.max(wl, 8)];
+				}
+				System.arraycopy(query, start, words[n], 0, wl);
+				word_lengths[n++] = wl;
+				start = -1;
+			}
+		}
+		return n;
+	}
+
+	private void ensureResults(int n)
+	{
+		if (results.length < n) {
+			int cap = Math.max(n, results.length * 2);
+			results = new int[cap];
+			scratch = new int[cap];
+		}
+	}
+
+	/* lower case letters and digits, anything else as one space, with no
+	 * space at either end */
+	private static char[] fold(CharSequence name)
+	{
+		if (name == null) {
+			return new char[0];
+		}
+		int len = name.length();
+		char[] out = new char[len];
+		int n = 0;
+		boolean space = false;
+		for (int i = 0; i < len; i++) {
+			char c = foldChar(name.charAt(i));
+			if (c == ' ') {
+				space = n > 0;
+				continue;
+			}
+			if (space) {
+				out[n++] = ' ';
+				space = false;
+			}
+			out[n++] = c;
+		}
+		return n == len ? out : Arrays.copyOf(out, n);
+	}
+
+	private static char foldChar(char c)
+	{
+		return Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : ' ';
+	}
+
+	private static long gram(char[] s, int start, int len)
+	{
+		long g = (long) len << COUNT_SHIFT;
+		for (int i = 0; i < len; i++) {
+			g |= (long) s[start + i] << (16 * (2 - i));
+		}
+		return g;
+	}
+
+	/* true if word[0..len) is found anywhere in name */
+	private static boolean contains(char[] name, char[] word, int len)
+	{
+		outer:
+		for (int i = 0; i + len <= name.length; i++) {
+			for (int j = 0; j < len; j++) {
+				if (name[i + j] != word[j]) {
+					continue outer;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,183 @@
+package add.contact;
+
+import java.util.Locale;
+
+/**
+ * NameNormalizer
+ * @author Matt
+ *
+ * Cleans up a person's name in a single pass: surrounding whitespace is
+ * dropped, runs of whitespace become one space and each word is title
+ * cased with the rest of it lower case. Words are split on whitespace and
+ * hyphens (Jean-Luc), and a single letter before an apostrophe is a word
+ * of its own (O'Brien, D'Angelo) while longer ones are not (Ka'iulani).
+ * Digits count as part of a word, so a word starting with one is left
+ * lower case (3rd).
+ *
+ * Case mapping follows the locale given: Turkish and Azeri dotted and
+ * dotless i are mapped correctly and a Greek sigma at the end of a word
+ * becomes a final sigma. Names longer than the length limit are cut at a
+ * character boundary.
+ *
+ * The work is done in a char buffer owned by the normalizer which is
+ * reused between calls, so an instance must not be shared between
+ * threads without locking.
+ */
+public final class NameNormalizer
+{
+	/* dotted capital I and dotless small i used by Turkish */
+	private static final char DOTTED_CAPITAL_I = '\u0130';
+	private static final char DOTLESS_SMALL_I = '\u0131';
+	private static final char CAPITAL_SIGMA = '\u03A3';
+	private static final char SMALL_SIGMA = '\u03C3';
+	private static final char FINAL_SIGMA = '\u03C2';
+
+	/* true if the locale uses Turkish rules for i */
+	private final boolean turkic;
+	/* most chars in a normalized name */
+	private final int max_length;
+	/* output of the last call */
+	private char[] buf;
+	private int len;
+
+	public NameNormalizer(Locale locale, int max_length)
+	{
+		String lang = locale.getLanguage();
+		this.turkic = "tr".equals(lang) || "az".equals(lang);
+		this.max_length = max_length;
+		this.buf = new char[Math.min(max_length, 64) + 1];
+	}
+
+	/**
+	 * Normalize a name.
+	 *
+	 * @param name - the name as typed or received, may be null.
+	 * @return the normalized name, empty if there was nothing but
+	 * whitespace.
+	 */
+	public String normalize(CharSequence name)
+	{
+		normalizeToBuffer(name);
+		return new String(buf, 0, len);
+	}
+
+	/**
+	 * Normalize a name into the internal buffer without creating a
+	 * String. The result is in getBuffer()[0 .. return value) until the
+	 * next call.
+	 *
+	 * @return the length of the normalized name.
+	 */
+	public int normalizeToBuffer(CharSequence name)
+	{
+		len = 0;
+		if (name == null) {
+			return 0;
+		}
+
+		int n = name.length();
+		/* true if the next letter starts a word */
+		boolean word_start = true;
+		/* letters since the start of the current word */
+		int word_len = 0;
+		/* a space is owed before the next char we write */
+		boolean space = false;
+
+		for (int i = 0; i < n;) {
+			int cp = Character.codePointAt(name, i);
+			int cp_len = Character.charCount(cp);
+			i += cp_len;
+
+			if (Character.isWhitespace(cp) || Character.isSpaceChar(cp)) {
+				/* collapse runs and drop leading whitespace */
+				space = len > 0;
+				word_start = true;
+				word_len = 0;
+				continue;
+			}
+
+			int out;
+			if (Character.isLetter(cp)) {
+				if (word_start) {
+					out = toTitle(cp);
+					word_start = false;
+				} else {
+					out = toLower(cp, name, i);
+				}
+				word_len++;
+			} else if (Character.isDigit(cp)) {
+				/* part of the word, so 3rd and 2nd stay lower case */
+				out = cp;
+				word_start = false;
+				word_len++;
+			} else {
+				out = cp;
+				if (cp == '-') {
+					/* each part of a double barrelled name is capitalized */
+					word_start = true;
+					word_len = 0;
+				} else if (cp == '\'' || cp == '\u2019') {
+					/* O'Brien but not Ka'iulani */
+					word_start = word_len == 1;
+					word_len = 0;
+				}
+			}
+
+			int need = (space ? 1 : 0) + Character.charCount(out);
+			if (len + need > max_length) {
+				break;
+			}
+			ensureCapacity(len + need);
+			if (space) {
+				buf[len++] = ' ';
+				space = false;
+			}
+			len += Character.toChars(out, buf, len);
+		}
+
+		return len;
+	}
+
+	/**
+	 * @return the buffer filled by the last call to normalizeToBuffer.
+	 */
+	public char[] getBuffer()
+	{
+		return buf;
+	}
+
+	private int toTitle(int cp)
+	{
+		if (turkic && cp == 'i') {
+			return DOTTED_CAPITAL_I;
+		}
+		return Character.toTitleCase(cp);
+	}
+
+	/*
+	 * Lower case a letter, next is the index just after it so the end of
+	 * the word can be seen for Greek sigma.
+	 */
+	private int toLower(int cp, CharSequence name, int next)
+	{
+		if (turkic && cp == 'I') {
+			return DOTLESS_SMALL_I;
+		}
+		if (cp == CAPITAL_SIGMA || cp == SMALL_SIGMA) {
+			boolean end = next >= name.length()
+					|| !Character.isLetter(Character.codePointAt(name, next));
+			return end ? FINAL_SIGMA : SMALL_SIGMA;
+		}
+		return Character.toLowerCase(cp);
+	}
+
+	private void ensureCapacity(int cap)
+	{
+		if (cap > buf.length) {
+			char[] grown = new char[Math.min(Math.max(cap, buf.length * 2),
+					max_length + 1)];
+			System.arraycopy(buf, 0, grown, 0, len);
+			buf = grown;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package add.contact;
+
+/**
+ * NewContact
+ * @author Matt
+ *
+ * A contact waiting to be added to the phone book: the number which will
+ * be saved as its mobile number and the name it will be saved under.
+ */
+public class NewContact
+{
+	private final String phone;
+	private final String name;
+
+	public NewContact(String phone, String name)
+	{
+		this.phone = phone;
+		this.name = name;
+	}
+
+	public String getPhone()
+	{
+		return this.phone;
+	}
+
+	public String getName()
+	{
+		return this.name;
+	}
+}
@@ -0,0 +1,221 @@
+package add.contact;
+
+import java.util.ArrayList;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+/**
+ * OwnerName
+ * @author Matt
+ *
+ * Works out the phone owner's name to suggest on SetName, in the
+ * background and only once. The answer is kept until the owner's profile
+ * changes.
+ *
+ * Sources are tried in order until one gives a name:
+ * 		the owner's profile, from version 14 on.
+ * 		an account named like "first.last@example.com".
+ * 		the name the user set before, in AddFromDialpad.PREFS_NAME.
+ * If none do the suggestion is empty.
+ */
+final class OwnerName
+{
+	/**
+	 * Callback
+	 *
+	 * Told the suggestion on the UI thread.
+	 */
+	interface Callback
+	{
+		/**
+		 * @param name - the suggested name, empty if none was found.
+		 */
+		void onOwnerName(String name);
+	}
+
+	private static final String TAG = "OwnerName";
+
+	/* the instance shared by all activities */
+	private static OwnerName instance;
+
+	private final Context ctx;
+	private final Handler main = new Handler(Looper.getMainLooper());
+
+	/* everything below is only used on the UI thread */
+	/* the last name found, null if it has to be worked out */
+	private String name;
+	/* waiting for the lookup under way, if any */
+	private final ArrayList<Callback> waiting = new ArrayList<Callback>();
+	/* bumped whenever the answer may have changed so a lookup which
+	 * started before then is not kept */
+	private int generation;
+
+	static synchronized OwnerName getInstance(Context ctx)
+	{
+		if (instance == null) {
+			instance = new OwnerName(ctx.getApplicationContext());
+		}
+		return instance;
+	}
+
+	private OwnerName(Context ctx)
+	{
+		this.ctx = ctx;
+		if (Build.VERSION.SDK_INT >= 14) {
+			ctx.getContentResolver().registerContentObserver(
+					ContactsContract.Profile.CONTENT_URI, true,
+					new ContentObserver(main) {
+						@Override
+						public void onChange(boolean selfChange)
+						{
+							invalidate();
+						}
+					});
+		}
+	}
+
+	/**
+	 * Get the suggested name. If it is known the callback is told straight
+	 * away, otherwise once it has been worked out in the background.
+	 * Call from the UI thread.
+	 */
+	void get(Callback callback)
+	{
+		if (name != null) {
+			callback.onOwnerName(name);
+			return;
+		}
+		waiting.add(callback);
+		if (waiting.size() > 1) {
+			/* already being looked up */
+			return;
+		}
+
+		final int started = generation;
+		Scheduler.getInstance().execute(Scheduler.Lane.INTERACTIVE,
+				Scheduler.PRIORITY_NORMAL, new Runnable() {
+					@Override
+					public void run()
+					{
+						final String found = lookup();
+						main.post(new Runnable() {
+							@Override
+							public void run()
+							{
+								deliver(started, found);
+							}
+						});
+					}
+				});
+	}
+
+	/**
+	 * Stop waiting for the name, say when the screen asking goes away.
+	 */
+	void cancel(Callback callback)
+	{
+		waiting.remove(callback);
+	}
+
+	/**
+	 * Forget the name found so the next get() looks again. Call from the UI
+	 * thread.
+	 */
+	void invalidate()
+	{
+		name = null;
+		generation++;
+	}
+
+	/* runs on the UI thread */
+	private void deliver(int started, String found)
+	{
+		if (started == generation) {
+			name = found;
+		}
+		ArrayList<Callback> told = new ArrayList<Callback>(waiting);
+		waiting.clear();
+		for (Callback c : told) {
+			c.onOwnerName(found);
+		}
+	}
+
+	/* try each source in turn, runs in the background */
+	private String lookup()
+	{
+		String found = "";
+		try {
+			found = Util.getUserName(ctx.getContentResolver());
+		} catch (RuntimeException e) {
+			/* READ_PROFILE may be refused, move on */
+			Log.w(TAG, "Unable to read the owner's profile", e);
+		}
+		if (isEmpty(found)) {
+			found = fromAccounts();
+		}
+		if (isEmpty(found)) {
+			found = ctx.getSharedPreferences(AddFromDialpad.PREFS_NAME, 0)
+					.getString("name", "");
+			if (AddFromDialpad.NO_NAME.equals(found)) {
+				found = "";
+			}
+		}
+		return found == null ? "" : found.trim();
+	}
+
+	/**
+	 * Guess a name from the accounts on the phone. Account names are
+	 * usually email addresses, only one whose user part is words split by
+	 * dots or underscores, like "john.smith", is taken as a name.
+	 *
+	 * @return the name, or null if no account looks like one.
+	 */
+	private String fromAccounts()
+	{
+		Account[] accounts;
+		try {
+			accounts = AccountManager.get(ctx).getAccounts();
+		} catch (RuntimeException e) {
+			Log.w(TAG, "Unable to read accounts", e);
+			return null;
+		}
+		for (Account a : accounts) {
+			if (a.name == null) {
+				continue;
+			}
+			int at = a.name.indexOf('@');
+			if (at <= 0) {
+				continue;
+			}
+			String[] words = a.name.substring(0, at).split("[._]");
+			if (words.length < 2) {
+				continue;
+			}
+			boolean letters = true;
+			for (String w : words) {
+				for (int i = 0; i < w.length() && letters; i++) {
+					letters = Character.isLetter(w.charAt(i));
+				}
+				letters = letters && w.length() > 0;
+			}
+			if (letters) {
+				return Util.capitalizeName(a.name.substring(0, at)
+						.replace('.', ' ').replace('_', ' '));
+			}
+		}
+		return null;
+	}
+
+	private static boolean isEmpty(String s)
+	{
+		return s == null || s.trim().length() == 0;
+	}
+}
@@ -0,0 +1,363 @@
+package add.contact;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+
+/**
+ * PhoneIndex
+ * @author Matt
+ *
+ * Process wide index from phone numbers to the contacts which own them.
+ * Every screen shares the one instance so the phone table is read once,
+ * after which "is this number already a contact" is a hash lookup with
+ * no trip to the contacts provider.
+ *
+ * Numbers are keyed by Util.numberKey. The index listens for changes to
+ * the contacts provider and catches up the next time refresh() is called:
+ * newly inserted phone rows are read incrementally past the highest row
+ * id seen, anything else (deletes, edited numbers, renamed or joined
+ * contacts) rebuilds the index.
+ *
+ * refresh() does provider I/O and must be called off the UI thread, the
+ * lookup methods only read memory and are safe to call from anywhere.
+ */
+public class PhoneIndex
+{
+	/* the instance shared by all activities */
+	private static PhoneIndex instance;
+
+	/* columns read for every phone row */
+	private static final Projection COLUMNS = new Projection(
+			Phone._ID,
+			Phone.CONTACT_ID,
+			Phone.NUMBER,
+			Phone.DISPLAY_NAME,
+			Phone.DATA_VERSION);
+	private static final int ROW_ID = COLUMNS.indexOf(Phone._ID);
+	private static final int CONTACT_ID = COLUMNS.indexOf(Phone.CONTACT_ID);
+	private static final int NUMBER = COLUMNS.indexOf(Phone.NUMBER);
+	private static final int NAME = COLUMNS.indexOf(Phone.DISPLAY_NAME);
+	private static final int VERSION = COLUMNS.indexOf(Phone.DATA_VERSION);
+
+	/* columns read to check the rows already indexed. A rename changes
+	 * the contact's name row, not the phone row's data version, so the
+	 * name and contact are checked as well */
+	private static final Projection VERSIONS = new Projection(
+			Phone._ID, Phone.CONTACT_ID, Phone.DISPLAY_NAME,
+			Phone.DATA_VERSION);
+	private static final int OLD_CONTACT_ID =
+			VERSIONS.indexOf(Phone.CONTACT_ID);
+	private static final int OLD_NAME = VERSIONS.indexOf(Phone.DISPLAY_NAME);
+	private static final int OLD_VERSION =
+			VERSIONS.indexOf(Phone.DATA_VERSION);
+
+	private final ContentResolver cr;
+	/* only one refresh may read the provider at a time */
+	private final Object refresh_lock = new Object();
+
+	/* current contents, replaced wholesale on rebuild */
+	private Table table;
+	/* set by the content observer when the index may be out of date */
+	private volatile boolean stale = true;
+
+	/**
+	 * Get the shared index, creating it if needed. The index starts out
+	 * empty until the first refresh().
+	 */
+	public static synchronized PhoneIndex getInstance(Context ctx)
+	{
+		if (instance == null) {
+			instance = new PhoneIndex(ctx.getApplicationContext());
+		}
+		return instance;
+	}
+
+	private PhoneIndex(Context ctx)
+	{
+		this.cr = ctx.getContentResolver();
+		this.table = new Table(16);
+
+		/* any change to contacts may invalidate us, just note it and
+		 * let the next refresh work out what changed */
+		cr.registerContentObserver(ContactsContract.AUTHORITY_URI, true,
+				new ContentObserver(null) {
+					@Override
+					public void onChange(boolean selfChange)
+					{
+						stale = true;
+					}
+				});
+	}
+
+	/**
+	 * Load the index in the background so it is ready by the time a
+	 * screen needs it. Must be called from the UI thread.
+	 */
+	public void warmUp()
+	{
+		if (!stale) {
+			return;
+		}
+		Scheduler.getInstance().execute(Scheduler.Lane.MAINTENANCE,
+				Scheduler.PRIORITY_NORMAL, new Runnable() {
+					@Override
+					public void run()
+					{
+						refresh();
+					}
+				});
+	}
+
+	/**
+	 * Bring the index up to date with the contacts provider. Cheap when
+	 * nothing changed. Does provider I/O, do not call on the UI thread.
+	 */
+	public void refresh()
+	{
+		synchronized (refresh_lock) {
+			if (!stale) {
+				return;
+			}
+			/* clear first so a change during the refresh is not lost */
+			stale = false;
+
+			long start = Metrics.start();
+			Table current;
+			synchronized (this) {
+				current = table;
+			}
+
+			if (current.loaded && appendNewRows(current)) {
+				Metrics.PHONE_INDEX.stop(start, current.rows, 0);
+				return;
+			}
+
+			/* build a new table without holding up lookups then swap */
+			Table rebuilt = new Table(Math.max(16, current.size));
+			readRows(rebuilt, null, null, null);
+			rebuilt.loaded = true;
+			synchronized (this) {
+				table = rebuilt;
+			}
+			Metrics.PHONE_INDEX.stop(start, rebuilt.rows, 0);
+		}
+	}
+
+	/**
+	 * Try to bring a loaded table up to date by reading only the rows
+	 * added since it was built.
+	 *
+	 * @return false if rows were deleted or changed and the table has
+	 * to be rebuilt.
+	 */
+	private boolean appendNewRows(Table current)
+	{
+		/* the rows we already have must be exactly as we read them */
+		long high_water;
+		int rows;
+		long versions;
+		synchronized (this) {
+			high_water = current.high_water;
+			rows = current.rows;
+			versions = current.versions;
+		}
+		Cursor c = VERSIONS.query(cr, Phone.CONTENT_URI,
+				Phone._ID + " <= ?",
+				new String[] { Long.toString(high_water) }, null);
+		if (c == null) {
+			return false;
+		}
+		long sum = 0;
+		int cnt = 0;
+		Projection.Chars name = new Projection.Chars(64);
+		try {
+			Projection.Row row = VERSIONS.bind(c);
+			while (c.moveToNext()) {
+				sum += checksum(row.getLong(OLD_CONTACT_ID),
+						row.getChars(OLD_NAME, name),
+						row.getLong(OLD_VERSION));
+				cnt++;
+			}
+		} finally {
+			c.close();
+		}
+		if (cnt != rows || sum != versions) {
+			return false;
+		}
+
+		/* then pick up everything past the high water mark */
+		readRows(current, Phone._ID + " > ?",
+				new String[] { Long.toString(high_water) }, this);
+		return true;
+	}
+
+	/**
+	 * Read phone rows into a table.
+	 *
+	 * @param lock - object to hold while adding to the table, if it is
+	 * already visible to lookups, otherwise null.
+	 */
+	private void readRows(Table t, String selection, String[] args,
+			Object lock)
+	{
+		Cursor c = COLUMNS.query(cr, Phone.CONTENT_URI, selection, args,
+				null);
+		if (c == null) {
+			return;
+		}
+		/* numbers are only needed long enough to key them */
+		Projection.Chars number = new Projection.Chars(32);
+		try {
+			Projection.Row row = COLUMNS.bind(c);
+			while (c.moveToNext()) {
+				long row_id = row.getLong(ROW_ID);
+				long contact_id = row.getLong(CONTACT_ID);
+				long key = Util.numberKey(row.getChars(NUMBER, number));
+				String name = row.getString(NAME);
+				long version = row.getLong(VERSION);
+				if (lock != null) {
+					synchronized (lock) {
+						t.add(row_id, key, contact_id, name, version);
+					}
+				} else {
+					t.add(row_id, key, contact_id, name, version);
+				}
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return what a phone row adds to Table.versions. A missing name
+	 * counts the same as an empty one.
+	 */
+	private static long checksum(long contact_id, CharSequence name,
+			long version)
+	{
+		int h = 0;
+		if (name != null) {
+			for (int i = 0; i < name.length(); i++) {
+				h = 31 * h + name.charAt(i);
+			}
+		}
+		return version + 31 * (contact_id + 31L * h);
+	}
+
+	/**
+	 * Record a contact we just added ourselves so it is visible before
+	 * the provider notifies us and the next refresh reads it properly.
+	 */
+	public synchronized void put(CharSequence number, long contact_id,
+			String name)
+	{
+		table.put(Util.numberKey(number), contact_id, name);
+	}
+
+	/**
+	 * @return the display name of the contact with this number or null
+	 * if the number does not belong to a known contact.
+	 */
+	public synchronized String lookupName(CharSequence number)
+	{
+		int i = table.find(Util.numberKey(number));
+		return i < 0 ? null : table.names[i];
+	}
+
+	/**
+	 * @return the id of the contact with this number or -1 if the number
+	 * does not belong to a known contact.
+	 */
+	public synchronized long lookupContactId(CharSequence number)
+	{
+		int i = table.find(Util.numberKey(number));
+		return i < 0 ? -1 : table.contact_ids[i];
+	}
+
+	/**
+	 * @return true if the number belongs to a known contact.
+	 */
+	public synchronized boolean contains(CharSequence number)
+	{
+		/* not by name, a contact may have none */
+		return table.find(Util.numberKey(number)) >= 0;
+	}
+
+	/**
+	 * @return true once the index has been loaded at least once.
+	 */
+	public synchronized boolean isLoaded()
+	{
+		return table.loaded;
+	}
+
+	/**
+	 * Table
+	 *
+	 * The index contents: a key to entry map and the entries themselves
+	 * in parallel arrays, plus what is needed to detect changes to the
+	 * phone rows they were built from.
+	 */
+	private static class Table
+	{
+		/* number key -> entry */
+		final LongIntMap entries;
+		long[] contact_ids;
+		String[] names;
+		/* number of entries */
+		int size;
+
+		/* phone rows read, highest row id read and the sum of their
+		 * checksums, used to tell if read rows changed since */
+		int rows;
+		long high_water = -1;
+		long versions;
+		boolean loaded;
+
+		Table(int expected)
+		{
+			entries = new LongIntMap(expected);
+			contact_ids = new long[expected];
+			names = new String[expected];
+		}
+
+		int find(long key)
+		{
+			return key < 0 ? -1 : entries.get(key, -1);
+		}
+
+		void add(long row_id, long key, long contact_id, String name,
+				long version)
+		{
+			rows++;
+			versions += checksum(contact_id, name, version);
+			if (row_id > high_water) {
+				high_water = row_id;
+			}
+			put(key, contact_id, name);
+		}
+
+		/* the first contact seen with a number keeps it */
+		void put(long key, long contact_id, String name)
+		{
+			if (key < 0 || entries.containsKey(key)) {
+				return;
+			}
+			if (size == names.length) {
+				long[] ids = new long[size * 2];
+				System.arraycopy(contact_ids, 0, ids, 0, size);
+				contact_ids = ids;
+				String[] n = new String[size * 2];
+				System.arraycopy(names, 0, n, 0, size);
+				names = n;
+			}
+			contact_ids[size] = contact_id;
+			names[size] = name;
+			entries.put(key, size++);
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package add.contact;
+
+/**
+ * PhoneNumber
+ * @author Matt
+ *
+ * Parsing, validation and canonical forms of phone numbers. Numbers are
+ * read in a single pass over any CharSequence (so an EditText's contents
+ * can be checked on every keystroke) and packed into a long, so nothing
+ * is allocated in the common case.
+ *
+ * Accepted input is digits with optional separators (space, '-', '.',
+ * '(', ')', '/') and an optional leading '+'. An international dialling
+ * prefix of 00 is treated like '+', and so is 011 when the region is one
+ * of the North American Numbering Plan countries. Elsewhere a leading 011
+ * is a national number (Sheffield 0114, Sapporo 011) and its digits are
+ * kept. Anything after an extension
+ * or pause marker (',', ';', '#', 'x', "ext", 'p', 'w') is ignored. Any
+ * other letter makes the input invalid, which is what alphanumeric SMS
+ * senders like "AMAZON" should be.
+ *
+ * Packed layout of a parsed number:
+ * 		bits 0-49  - the digits as a decimal value (at most 15 digits).
+ * 		bits 50-54 - the number of digits, so leading zeros are kept.
+ * 		bit 55     - set if the number was written in international form.
+ * INVALID (-1) is returned for anything which is not a number.
+ */
+public final class PhoneNumber
+{
+	/* returned for input which is not a phone number */
+	public static final long INVALID = -1;
+
+	/* most digits in an E.164 number */
+	public static final int MAX_DIGITS = 15;
+	/* digits compared when matching numbers written in different forms,
+	 * enough for a national number without its country code */
+	public static final int MATCH_DIGITS = 10;
+
+	private static final int COUNT_SHIFT = 50;
+	private static final long VALUE_MASK = (1L << COUNT_SHIFT) - 1;
+	private static final long COUNT_MASK = 0x1FL;
+	private static final long INTERNATIONAL = 1L << 55;
+
+	/* regions which dial out with 011, ISO 3166 codes of the North
+	 * American Numbering Plan countries */
+	private static final String[] NANP_REGIONS = {
+		"us", "ca", "ag", "ai", "as", "bb", "bm", "bs", "dm", "do", "gd",
+		"gu", "jm", "kn", "ky", "lc", "mp", "ms", "pr", "sx", "tc", "tt",
+		"vc", "vg", "vi"
+	};
+
+	private PhoneNumber()
+	{
+	}
+
+	/**
+	 * Parse a phone number without knowing the region it was dialled in,
+	 * so a leading 011 is kept as digits.
+	 *
+	 * @see #parse(CharSequence, String)
+	 */
+	public static long parse(CharSequence s)
+	{
+		return parse(s, null);
+	}
+
+	/**
+	 * Parse a phone number.
+	 *
+	 * @param s - the number as typed or received, may be null.
+	 * @param region - ISO 3166 country code the number is dialled from, as
+	 * 		the SIM or network reports it, or null if not known.
+	 * @return the packed number or INVALID.
+	 */
+	public static long parse(CharSequence s, String region)
+	{
+		if (s == null) {
+			return INVALID;
+		}
+		int len = s.length();
+		boolean nanp = isNanp(region);
+		long value = 0;
+		int digits = 0;
+		boolean plus = false;
+		/* leading zeros, kept until we know if they are a dial prefix */
+		int lead = 0;
+		boolean started = false;
+
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (!started) {
+					if (c == '0' && !plus) {
+						/* could be part of 00 / 011, decide once we see
+						 * the first other digit */
+						lead++;
+						continue;
+					}
+					started = true;
+					if (!plus && lead == 2) {
+						/* 00 then the country code */
+						plus = true;
+						lead = 0;
+					} else if (nanp && !plus && lead == 1 && c == '1'
+							&& i + 1 < len && s.charAt(i + 1) == '1') {
+						/* the North American 011, skip both ones */
+						plus = true;
+						lead = 0;
+						i++;
+						continue;
+					}
+					/* leading zeros which were not a prefix are digits */
+					digits = lead;
+				}
+				if (++digits > MAX_DIGITS) {
+					return INVALID;
+				}
+				value = value * 10 + (c - '0');
+			} else if (c == '+') {
+				/* only allowed before any digit */
+				if (plus || started || lead > 0) {
+					return INVALID;
+				}
+				plus = true;
+			} else if (isSeparator(c)) {
+				continue;
+			} else if (isExtension(c) && (started || lead > 0)) {
+				/* the rest is an extension or dial pause */
+				break;
+			} else {
+				return INVALID;
+			}
+		}
+
+		/* a number which was nothing but zeros */
+		if (!started) {
+			digits = lead;
+			if (digits > MAX_DIGITS) {
+				return INVALID;
+			}
+		}
+		if (digits == 0) {
+			return INVALID;
+		}
+		return (plus ? INTERNATIONAL : 0) | ((long) digits << COUNT_SHIFT)
+				| value;
+	}
+
+	/**
+	 * @return true if the input is a full phone number which could be
+	 * added as a contact: 7 to 15 digits, or 8 to 15 including the country
+	 * code when written in international form.
+	 */
+	public static boolean isValid(CharSequence s)
+	{
+		return isValid(parse(s));
+	}
+
+	/**
+	 * @see #isValid(CharSequence)
+	 */
+	public static boolean isValid(long number)
+	{
+		if (number == INVALID) {
+			return false;
+		}
+		int digits = getDigitCount(number);
+		return isInternational(number) ? digits >= 8 : digits >= 7;
+	}
+
+	/**
+	 * @return true if the number is a short code, 3 to 6 digits written
+	 * without a country code, like the ones services send texts from.
+	 */
+	public static boolean isShortCode(long number)
+	{
+		if (number == INVALID || isInternational(number)) {
+			return false;
+		}
+		int digits = getDigitCount(number);
+		return digits >= 3 && digits <= 6;
+	}
+
+	public static boolean isInternational(long number)
+	{
+		return number != INVALID && (number & INTERNATIONAL) != 0;
+	}
+
+	public static int getDigitCount(long number)
+	{
+		return number == INVALID ? 0
+				: (int) ((number >>> COUNT_SHIFT) & COUNT_MASK);
+	}
+
+	/**
+	 * Reduce a parsed number to a key which is the same for different
+	 * ways of writing the same number, so "+1 (555) 123-4567", "1 555 123
+	 * 4567" and "5551234567" compare equal. Only the last MATCH_DIGITS
+	 * digits are kept which drops country codes and trunk prefixes. The
+	 * key is suitable for hashing.
+	 *
+	 * @return the key or INVALID.
+	 */
+	public static long matchKey(long number)
+	{
+		if (number == INVALID) {
+			return INVALID;
+		}
+		int digits = getDigitCount(number);
+		long value = number & VALUE_MASK;
+		if (digits > MATCH_DIGITS) {
+			value %= 10000000000L;
+			digits = MATCH_DIGITS;
+		}
+		return ((long) digits << COUNT_SHIFT) | value;
+	}
+
+	/**
+	 * Write the canonical form of a number, its digits with a leading
+	 * '+' if it was given in international form.
+	 *
+	 * @param number - a parsed number.
+	 * @param out - buffer to append to, reuse it to avoid allocation.
+	 * @return false if the number is INVALID, nothing is written then.
+	 */
+	public static boolean canonicalize(long number, StringBuilder out)
+	{
+		if (number == INVALID) {
+			return false;
+		}
+		if (isInternational(number)) {
+			out.append('+');
+		}
+		/* write digits most significant first, including leading zeros */
+		int digits = getDigitCount(number);
+		long value = number & VALUE_MASK;
+		long place = 1;
+		for (int i = 1; i < digits; i++) {
+			place *= 10;
+		}
+		for (int i = 0; i < digits; i++) {
+			out.append((char) ('0' + (value / place) % 10));
+			place /= 10;
+		}
+		return true;
+	}
+
+	private static boolean isNanp(String region)
+	{
+		if (region == null) {
+			return false;
+		}
+		for (String r : NANP_REGIONS) {
+			if (r.equalsIgnoreCase(region)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isSeparator(char c)
+	{
+		return c == ' ' || c == '-' || c == '.' || c == '(' || c == ')'
+				|| c == '/' || c == '\u00A0';
+	}
+
+	private static boolean isExtension(char c)
+	{
+		return c == ',' || c == ';' || c == '#' || c == 'x' || c == 'X'
+				|| c == 'e' || c == 'E' || c == 'p' || c == 'P' || c == 'w'
+				|| c == 'W';
+	}
+}
@@ -0,0 +1,209 @@
+package add.contact;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * Projection
+ * @author Matt
+ *
+ * The columns of a query, declared once as a constant next to the code
+ * which reads them. Columns are read by their position in the declaration,
+ * which is looked up once with indexOf() into int constants:
+ *
+ * 		static final Projection TEXTS = new Projection("_id", "body");
+ * 		static final int ID = TEXTS.indexOf("_id");
+ *
+ * A cursor is read through a Row, which works out where each declared
+ * column is in that cursor once rather than per row. Providers normally
+ * return the columns in the order asked for, in which case the positions
+ * are used as they are. Some SMS providers on the market reorder them or
+ * leave one out; a missing column reads as null.
+ *
+ * To save making a String per row, text can be copied into a Chars which
+ * is reused from row to row.
+ */
+final class Projection
+{
+	private final String[] columns;
+	/* column i is at position i, the usual mapping */
+	private final int[] identity;
+
+	Projection(String... columns)
+	{
+		this.columns = columns;
+		this.identity = new int[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			identity[i] = i;
+		}
+	}
+
+	/**
+	 * @return the position of a declared column, to keep in a constant.
+	 */
+	int indexOf(String column)
+	{
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].equals(column)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No column " + column);
+	}
+
+	/**
+	 * @return the column names to pass to a query. Do not change them.
+	 */
+	String[] columns()
+	{
+		return columns;
+	}
+
+	/**
+	 * Query the provider for these columns.
+	 *
+	 * @return the cursor, or null if the provider returned none.
+	 */
+	Cursor query(ContentResolver cr, Uri uri, String selection,
+			String[] args, String sort)
+	{
+		long start = Metrics.start();
+		try {
+			return cr.query(uri, columns, selection, args, sort);
+		} finally {
+			Metrics.QUERY.stop(start);
+		}
+	}
+
+	/**
+	 * Get a row reader for a cursor over these columns. The caller still
+	 * moves and closes the cursor.
+	 */
+	Row bind(Cursor c)
+	{
+		return new Row(c, map(c));
+	}
+
+	/* where each declared column is in the cursor, -1 if it is not */
+	private int[] map(Cursor c)
+	{
+		String[] names = c.getColumnNames();
+		boolean same = names != null && names.length >= columns.length;
+		for (int i = 0; i < columns.length && same; i++) {
+			same = columns[i].equalsIgnoreCase(names[i]);
+		}
+		if (same) {
+			return identity;
+		}
+		int[] map = new int[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			map[i] = c.getColumnIndex(columns[i]);
+		}
+		return map;
+	}
+
+	/**
+	 * Row
+	 *
+	 * Reads the current row of a cursor by declared column.
+	 */
+	static final class Row
+	{
+		private final Cursor c;
+		private final int[] map;
+
+		private Row(Cursor c, int[] map)
+		{
+			this.c = c;
+			this.map = map;
+		}
+
+		boolean isNull(int column)
+		{
+			int i = map[column];
+			return i < 0 || c.isNull(i);
+		}
+
+		/**
+		 * @return the value, or 0 if it is null or missing.
+		 */
+		long getLong(int column)
+		{
+			int i = map[column];
+			return i < 0 ? 0 : c.getLong(i);
+		}
+
+		/**
+		 * @return the value, or null if it is null or missing.
+		 */
+		String getString(int column)
+		{
+			int i = map[column];
+			return i < 0 ? null : c.getString(i);
+		}
+
+		/**
+		 * Copy text into a reusable buffer rather than a new String.
+		 *
+		 * @return the buffer, empty if the value is null or missing.
+		 */
+		Chars getChars(int column, Chars out)
+		{
+			int i = map[column];
+			if (i < 0) {
+				out.buffer.sizeCopied = 0;
+			} else {
+				c.copyStringToBuffer(i, out.buffer);
+			}
+			return out;
+		}
+	}
+
+	/**
+	 * Chars
+	 *
+	 * Text copied out of a cursor, readable as a CharSequence until the
+	 * next copy into it.
+	 */
+	static final class Chars implements CharSequence
+	{
+		final CharArrayBuffer buffer;
+
+		Chars(int capacity)
+		{
+			buffer = new CharArrayBuffer(capacity);
+		}
+
+		@Override
+		public int length()
+		{
+			return buffer.sizeCopied;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			if (index >= buffer.sizeCopied) {
+				throw new IndexOutOfBoundsException();
+			}
+			return buffer.data[index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end)
+		{
+			if (start < 0 || end > buffer.sizeCopied || start > end) {
+				throw new IndexOutOfBoundsException();
+			}
+			return new String(buffer.data, start, end - start);
+		}
+
+		@Override
+		public String toString()
+		{
+			return new String(buffer.data, 0, buffer.sizeCopied);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package add.contact;
+
+/**
+ * RowLabel
+ * @author Matt
+ *
+ * Text buffer owned by one row of the recent contacts list. The row's
+ * "n. name" label is written into it each time the row is reused so
+ * showing a row does not build a new String.
+ *
+ * Plain Java like PhoneNumber, NameNormalizer and NameIndex, so it can be
+ * exercised off the phone.
+ */
+final class RowLabel
+{
+	char[] text = new char[64];
+
+	/**
+	 * Write "number. name" into the buffer.
+	 *
+	 * @return the length of the label.
+	 */
+	int bind(int number, String name)
+	{
+		if( name == null )
+		{
+			name = "";
+		}
+		/* at most 10 digits for the number plus ". " */
+		int need = 12 + name.length();
+		if( need > text.length )
+		{
+			text = new char[need];
+		}
+
+		/* write the digits backwards then flip them */
+		int len = 0;
+		do
+		{
+			text[len++] = (char) ('0' + number % 10);
+			number /= 10;
+		} while( number > 0 );
+		for( int i = 0, j = len - 1; i < j; i++, j-- )
+		{
+			char c = text[i];
+			text[i] = text[j];
+			text[j] = c;
+		}
+
+		text[len++] = '.';
+		text[len++] = ' ';
+		name.getChars(0, name.length(), text, len);
+		return len + name.length();
+	}
+}
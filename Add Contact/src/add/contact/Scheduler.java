@@ -0,0 +1,378 @@
+package add.contact;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Scheduler
+ * @author Matt
+ *
+ * Runs all of the app's background work on its own threads rather than
+ * the process wide AsyncTask executor, where one slow load holds up every
+ * other task queued behind it.
+ *
+ * Work is split into lanes which each have their own small, fixed set of
+ * threads, so a long load of texts can not hold up a contact being
+ * written and index upkeep never competes with either:
+ * 		INTERACTIVE - work the user is waiting on, such as adding a contact.
+ * 		LIST        - loads of the lists shown on screen.
+ * 		MAINTENANCE - upkeep nobody is waiting on, such as warming up the
+ * 		              number index or saving the contacts snapshot.
+ *
+ * Within a lane queued work runs highest priority first, and in the order
+ * it was queued among equals. Each piece of work gets a Token which takes
+ * it off the queue if it has not started yet. Work which has started is
+ * left to check for itself whether it is still wanted.
+ *
+ * Every lane counts what passes through it, see getStats().
+ */
+final class Scheduler
+{
+	private static final String TAG = "Scheduler";
+
+	/* priorities within a lane, higher runs first */
+	static final int PRIORITY_HIGH = 10;
+	static final int PRIORITY_NORMAL = 0;
+	static final int PRIORITY_LOW = -10;
+
+	/**
+	 * Lane
+	 *
+	 * A kind of work, with how many threads it gets and how favourably the
+	 * system schedules them.
+	 */
+	enum Lane
+	{
+		INTERACTIVE(2, Process.THREAD_PRIORITY_DEFAULT),
+		LIST(2, Process.THREAD_PRIORITY_BACKGROUND),
+		MAINTENANCE(1, Process.THREAD_PRIORITY_LOWEST);
+
+		final int threads;
+		final int thread_priority;
+
+		Lane(int threads, int thread_priority)
+		{
+			this.threads = threads;
+			this.thread_priority = thread_priority;
+		}
+	}
+
+	/**
+	 * Token
+	 *
+	 * Handle on one piece of queued work.
+	 */
+	static final class Token
+	{
+		private final Task task;
+
+		private Token(Task task)
+		{
+			this.task = task;
+		}
+
+		/**
+		 * Take the work off the queue. Does nothing once it has started.
+		 *
+		 * @return true if the work will not run.
+		 */
+		boolean cancel()
+		{
+			return task.cancel();
+		}
+
+		/**
+		 * @return true if the work was cancelled before it started.
+		 */
+		boolean isCancelled()
+		{
+			return task.state.get() == CANCELLED;
+		}
+	}
+
+	/**
+	 * Stats
+	 *
+	 * What has passed through a lane since the app started.
+	 */
+	static final class Stats
+	{
+		final Lane lane;
+		/* work queued and not started yet, now and at most */
+		final int depth;
+		final int max_depth;
+		final long submitted;
+		final long completed;
+		final long cancelled;
+		/* work which threw */
+		final long failed;
+		/* total time work spent queued and running, in ms */
+		final long wait_ms;
+		final long run_ms;
+
+		private Stats(Lane lane, Pool p)
+		{
+			this.lane = lane;
+			this.depth = p.depth.get();
+			this.max_depth = p.max_depth.get();
+			this.submitted = p.submitted.get();
+			this.completed = p.completed.get();
+			this.cancelled = p.cancelled.get();
+			this.failed = p.failed.get();
+			this.wait_ms = p.wait_ms.get();
+			this.run_ms = p.run_ms.get();
+		}
+
+		@Override
+		public String toString()
+		{
+			return lane + ": depth " + depth + " (max " + max_depth + "), "
+					+ submitted + " submitted, " + completed + " completed, "
+					+ cancelled + " cancelled, " + failed + " failed, "
+					+ wait_ms + " ms queued, " + run_ms + " ms running";
+		}
+	}
+
+	/* states of a task */
+	private static final int QUEUED = 0;
+	private static final int RUNNING = 1;
+	private static final int CANCELLED = 2;
+
+	/* the instance shared by all activities */
+	private static Scheduler instance;
+
+	private final Pool[] pools;
+	/* breaks ties between tasks of the same priority */
+	private final AtomicLong sequence = new AtomicLong();
+
+	static synchronized Scheduler getInstance()
+	{
+		if (instance == null) {
+			instance = new Scheduler();
+		}
+		return instance;
+	}
+
+	private Scheduler()
+	{
+		Lane[] lanes = Lane.values();
+		pools = new Pool[lanes.length];
+		for (int i = 0; i < lanes.length; i++) {
+			pools[i] = new Pool(lanes[i]);
+		}
+	}
+
+	/**
+	 * Queue work on a lane.
+	 *
+	 * @param priority - one of the PRIORITY constants, or anything in
+	 * between.
+	 * @return a token to cancel the work with.
+	 */
+	Token execute(Lane lane, int priority, Runnable work)
+	{
+		Pool pool = pools[lane.ordinal()];
+		Task task = new Task(pool, priority, sequence.getAndIncrement(),
+				work);
+		pool.submitted.incrementAndGet();
+		int depth = pool.depth.incrementAndGet();
+		int max = pool.max_depth.get();
+		while (depth > max && !pool.max_depth.compareAndSet(max, depth)) {
+			max = pool.max_depth.get();
+		}
+		pool.executor.execute(task);
+		return new Token(task);
+	}
+
+	/**
+	 * An executor which runs its work on a lane one piece at a time, in
+	 * the order it was given. Only the piece at the head is queued on the
+	 * lane, the rest wait their turn in the executor and do not count
+	 * towards the lane's depth.
+	 */
+	Executor serial(Lane lane, int priority)
+	{
+		return new Serial(lane, priority);
+	}
+
+	/**
+	 * @return counts of what has passed through a lane.
+	 */
+	Stats getStats(Lane lane)
+	{
+		return new Stats(lane, pools[lane.ordinal()]);
+	}
+
+	/**
+	 * @return the number of tasks queued on a lane and not started yet.
+	 */
+	int getQueueDepth(Lane lane)
+	{
+		return pools[lane.ordinal()].depth.get();
+	}
+
+	/**
+	 * Pool
+	 *
+	 * The threads and counters of one lane.
+	 */
+	private static final class Pool
+	{
+		final ThreadPoolExecutor executor;
+		final AtomicInteger depth = new AtomicInteger();
+		final AtomicInteger max_depth = new AtomicInteger();
+		final AtomicLong submitted = new AtomicLong();
+		final AtomicLong completed = new AtomicLong();
+		final AtomicLong cancelled = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicLong wait_ms = new AtomicLong();
+		final AtomicLong run_ms = new AtomicLong();
+
+		Pool(final Lane lane)
+		{
+			/* the queue only ever holds Tasks, which order themselves */
+			executor = new ThreadPoolExecutor(lane.threads, lane.threads, 0,
+					TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						private int count;
+
+						@Override
+						public Thread newThread(final Runnable r)
+						{
+							return new Thread(new Runnable() {
+								@Override
+								public void run()
+								{
+									Process.setThreadPriority(
+											lane.thread_priority);
+									r.run();
+								}
+							}, "Scheduler " + lane + " #" + ++count);
+						}
+					});
+		}
+	}
+
+	/**
+	 * Task
+	 *
+	 * A piece of work queued on a lane.
+	 */
+	private static final class Task implements Runnable, Comparable<Task>
+	{
+		private final Pool pool;
+		private final int priority;
+		private final long seq;
+		private final Runnable work;
+		private final long queued_at = SystemClock.uptimeMillis();
+		final AtomicInteger state = new AtomicInteger(QUEUED);
+
+		Task(Pool pool, int priority, long seq, Runnable work)
+		{
+			this.pool = pool;
+			this.priority = priority;
+			this.seq = seq;
+			this.work = work;
+		}
+
+		@Override
+		public int compareTo(Task other)
+		{
+			if (priority != other.priority) {
+				return priority > other.priority ? -1 : 1;
+			}
+			return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+		}
+
+		@Override
+		public void run()
+		{
+			if (!state.compareAndSet(QUEUED, RUNNING)) {
+				/* cancelled while it was being taken off the queue */
+				return;
+			}
+			pool.depth.decrementAndGet();
+			long start = SystemClock.uptimeMillis();
+			pool.wait_ms.addAndGet(start - queued_at);
+			try {
+				work.run();
+				pool.completed.incrementAndGet();
+			} catch (RuntimeException e) {
+				/* keep the thread for the next task */
+				pool.failed.incrementAndGet();
+				Log.e(TAG, "Background task failed", e);
+			} finally {
+				pool.run_ms.addAndGet(SystemClock.uptimeMillis() - start);
+			}
+		}
+
+		boolean cancel()
+		{
+			if (!state.compareAndSet(QUEUED, CANCELLED)) {
+				return state.get() == CANCELLED;
+			}
+			pool.executor.remove(this);
+			pool.depth.decrementAndGet();
+			pool.cancelled.incrementAndGet();
+			return true;
+		}
+	}
+
+	/**
+	 * Serial
+	 *
+	 * Feeds its work to a lane one piece at a time.
+	 */
+	private final class Serial implements Executor
+	{
+		private final Lane lane;
+		private final int priority;
+		private final ArrayDeque<Runnable> waiting = new ArrayDeque<Runnable>();
+		private boolean running;
+
+		Serial(Lane lane, int priority)
+		{
+			this.lane = lane;
+			this.priority = priority;
+		}
+
+		@Override
+		public synchronized void execute(Runnable work)
+		{
+			waiting.add(work);
+			if (!running) {
+				next();
+			}
+		}
+
+		private synchronized void next()
+		{
+			final Runnable work = waiting.poll();
+			running = work != null;
+			if (work == null) {
+				return;
+			}
+			Scheduler.this.execute(lane, priority, new Runnable() {
+				@Override
+				public void run()
+				{
+					try {
+						work.run();
+					} finally {
+						next();
+					}
+				}
+			});
+		}
+	}
+}
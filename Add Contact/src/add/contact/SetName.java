@@ -23,9 +23,15 @@ import android.widget.TextView;
  * 
  * This is called by the toggle button if there is no set name and the 
  * set name button on the home page.
+ * 
+ * The screen opens straight away and a guess at the user's name is
+ * filled in once OwnerName has one, unless the user started typing.
  */
 public class SetName extends Activity
     {
+        /* told the guessed name, null once it has been */
+        private OwnerName.Callback suggest;
+        
         @Override
         public void onCreate(Bundle savedInstanceState) {
         	/* establish the UI */
@@ -33,14 +39,25 @@ public class SetName extends Activity
             setContentView(R.layout.set_name);
             
             /* attempt to find and set the users name */
-            EditText name_input = (EditText) this.findViewById(R.id.set_name_input);
-            String name_attempt = Util.getUserName(getContentResolver());
-            if( !name_attempt.equals("") )
+            final EditText name_input = (EditText) this.findViewById(R.id.set_name_input);
+            suggest = new OwnerName.Callback()
             {
-            	TextView found_name_msg = (TextView) this.findViewById(R.id.found_name_msg);
-            	found_name_msg.setText(getString(R.string.found_name));
-            	name_input.setText(name_attempt);
-            }
+            	@Override
+            	public void onOwnerName(String name_attempt)
+            	{
+            		suggest = null;
+            		/* do not overwrite what the user typed */
+            		if( !name_attempt.equals("") && 
+            				name_input.getText().length() == 0 )
+            		{
+            			TextView found_name_msg = (TextView) findViewById(R.id.found_name_msg);
+            			found_name_msg.setText(getString(R.string.found_name));
+            			name_input.setText(name_attempt);
+            			name_input.setSelection(name_attempt.length());
+            		}
+            	}
+            };
+            OwnerName.getInstance(this).get(suggest);
             
 
             /* set the onclick handler */
@@ -67,6 +84,8 @@ public class SetName extends Activity
 				    	Editor pref_editor = settings.edit();
 				    	pref_editor.putString("name", new_name);
 				    	pref_editor.apply();
+				    	/* the stored name may now be the best guess */
+				    	OwnerName.getInstance(SetName.this).invalidate();
 				    	
 				    	/* tell the user the name that was set */
 				    	Util.toast_msg(SetName.this, "Name set to "+ 
@@ -77,5 +96,21 @@ public class SetName extends Activity
 				}
             });
             
-        }    	
+        }
+        
+        /*
+         * (non-Javadoc)
+         * @see android.app.Activity#onDestroy()
+         * 
+         * Stop waiting for the guessed name.
+         */
+        @Override
+        public void onDestroy()
+        {
+        	super.onDestroy();
+        	if( suggest != null )
+        	{
+        		OwnerName.getInstance(this).cancel(suggest);
+        	}
+        }
     }
\ No newline at end of file
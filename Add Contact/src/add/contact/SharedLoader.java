@@ -0,0 +1,400 @@
+package add.contact;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * SharedLoader
+ * @author Matt
+ *
+ * Runs the background loads behind the list screens. Each load is named
+ * by a key describing the data it reads, say the page of contacts below
+ * a row id. Asking for a key which is already being loaded joins that
+ * load rather than starting a second one, so quickly leaving and coming
+ * back to a screen does not have two loads fighting over the provider.
+ *
+ * Everyone waiting on a load gets each item it publishes and then its
+ * result, on the UI thread. Someone who joins late is first given the
+ * items published before they joined. Waiters cancel their own Ticket;
+ * once nobody is waiting the load itself is cancelled. Jobs check for
+ * that between rows with next(Cursor) and between batches with
+ * isCancelled(), and close their cursors on the way out. On Jelly Bean
+ * and up a query still running in the provider is cancelled too.
+ *
+ * Loads run on the LIST lane of the Scheduler. join() and Ticket must
+ * only be used from the UI thread.
+ */
+final class SharedLoader
+{
+	private static final String TAG = "SharedLoader";
+
+	/**
+	 * Job
+	 *
+	 * The work of one load, done on a background thread.
+	 *
+	 * @param <P> - type of the items published while loading.
+	 * @param <R> - type of the result.
+	 */
+	abstract static class Job<P, R>
+	{
+		/* set once nobody is waiting for the result */
+		private volatile boolean cancelled;
+		private Flight<P, R> flight;
+		private CancellationSignal signal;
+
+		/**
+		 * Do the load. Runs on a background thread.
+		 *
+		 * @return the result handed to every waiter.
+		 */
+		protected abstract R load();
+
+		/**
+		 * Hand an item to everyone waiting, on the UI thread.
+		 */
+		protected final void publish(P item)
+		{
+			if (!cancelled) {
+				flight.publish(item);
+			}
+		}
+
+		/**
+		 * @return true once nobody is waiting for the result, the job
+		 * should stop as soon as it can.
+		 */
+		protected final boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		/**
+		 * Move to the next row unless the job was cancelled.
+		 *
+		 * @return false if there are no more rows or the job should stop.
+		 */
+		protected final boolean next(Cursor c)
+		{
+			return !cancelled && c.moveToNext();
+		}
+
+		/**
+		 * Query the provider such that cancelling the job cancels the query
+		 * where the platform allows it.
+		 *
+		 * @return the cursor, or null if the query failed or was cancelled.
+		 */
+		protected final Cursor query(ContentResolver cr, Uri uri,
+				Projection projection, String selection, String[] args,
+				String sort)
+		{
+			if (cancelled) {
+				return null;
+			}
+			if (Build.VERSION.SDK_INT >= 16) {
+				return queryCancellable(cr, uri, projection.columns(),
+						selection, args, sort);
+			}
+			return projection.query(cr, uri, selection, args, sort);
+		}
+
+		@TargetApi(16)
+		private Cursor queryCancellable(ContentResolver cr, Uri uri,
+				String[] projection, String selection, String[] args,
+				String sort)
+		{
+			CancellationSignal s = new CancellationSignal();
+			synchronized (this) {
+				signal = s;
+			}
+			/* a cancel between the check above and here still counts */
+			if (cancelled) {
+				return null;
+			}
+			long start = Metrics.start();
+			try {
+				return cr.query(uri, projection, selection, args, sort, s);
+			} catch (RuntimeException e) {
+				/* OperationCanceledException, the job is on its way out */
+				if (cancelled) {
+					return null;
+				}
+				throw e;
+			} finally {
+				Metrics.QUERY.stop(start);
+				synchronized (this) {
+					signal = null;
+				}
+			}
+		}
+
+		@TargetApi(16)
+		private void cancel()
+		{
+			cancelled = true;
+			if (Build.VERSION.SDK_INT >= 16) {
+				synchronized (this) {
+					if (signal != null) {
+						signal.cancel();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Listener
+	 *
+	 * Told on the UI thread what a load produces.
+	 */
+	interface Listener<P, R>
+	{
+		void onProgress(P item);
+
+		/**
+		 * @param result - what the job returned, or null if it failed.
+		 */
+		void onLoaded(R result);
+	}
+
+	/**
+	 * Ticket
+	 *
+	 * One waiter's place on a load.
+	 */
+	static final class Ticket
+	{
+		private final Flight<?, ?> flight;
+		/* true once items published before joining have been handed over */
+		private boolean replayed;
+		private boolean cancelled;
+		private boolean done;
+
+		private Ticket(Flight<?, ?> flight)
+		{
+			this.flight = flight;
+		}
+
+		/**
+		 * Stop waiting. The listener is not called again.
+		 */
+		void cancel()
+		{
+			if (!cancelled && !done) {
+				cancelled = true;
+				flight.leave(this);
+			}
+		}
+
+		/**
+		 * @return true until the result is delivered or the ticket is
+		 * cancelled.
+		 */
+		boolean isActive()
+		{
+			return !cancelled && !done;
+		}
+	}
+
+	/* the instance shared by all activities */
+	private static SharedLoader instance;
+
+	private final Handler main = new Handler(Looper.getMainLooper());
+	/* loads in progress by key, only touched on the UI thread */
+	private final HashMap<String, Flight<?, ?>> flights =
+			new HashMap<String, Flight<?, ?>>();
+
+	static synchronized SharedLoader getInstance()
+	{
+		if (instance == null) {
+			instance = new SharedLoader();
+		}
+		return instance;
+	}
+
+	private SharedLoader()
+	{
+	}
+
+	/**
+	 * Wait for the data named by key, joining a load of it which is already
+	 * running or else starting job.
+	 *
+	 * @param priority - Scheduler priority of the load if it is started,
+	 * say high for what fills an empty screen and low for a refresh.
+	 * @param job - used only if nothing is loading key yet, it must give
+	 * the same result as any other job with the same key.
+	 * @return a ticket to cancel waiting with.
+	 */
+	@SuppressWarnings("unchecked")
+	<P, R> Ticket join(String key, int priority, Job<P, R> job,
+			Listener<P, R> listener)
+	{
+		Flight<P, R> flight = (Flight<P, R>) flights.get(key);
+		boolean fresh = flight == null;
+		if (fresh) {
+			flight = new Flight<P, R>(key, job);
+			flights.put(key, flight);
+		}
+		Ticket ticket = flight.add(listener);
+		if (fresh) {
+			flight.token = Scheduler.getInstance().execute(
+					Scheduler.Lane.LIST, priority, flight);
+		}
+		return ticket;
+	}
+
+	/**
+	 * Flight
+	 *
+	 * A load in progress and everyone waiting for it. Apart from run(),
+	 * only used on the UI thread.
+	 */
+	private final class Flight<P, R> implements Runnable
+	{
+		private final String key;
+		private final Job<P, R> job;
+		/* waiters and their listeners */
+		private final ArrayList<Ticket> tickets = new ArrayList<Ticket>();
+		private final ArrayList<Listener<P, R>> listeners =
+				new ArrayList<Listener<P, R>>();
+		/* everything published so far, for those who join late */
+		private final ArrayList<P> items = new ArrayList<P>();
+		private boolean finished;
+		private R result;
+		/* place of the load in the scheduler's queue */
+		private Scheduler.Token token;
+
+		Flight(String key, Job<P, R> job)
+		{
+			this.key = key;
+			this.job = job;
+			job.flight = this;
+		}
+
+		@Override
+		public void run()
+		{
+			R r = null;
+			try {
+				if (!job.isCancelled()) {
+					r = job.load();
+				}
+			} catch (RuntimeException e) {
+				Log.w(TAG, "Load of " + key + " failed", e);
+			}
+			final R loaded = r;
+			main.post(new Runnable() {
+				@Override
+				public void run()
+				{
+					finish(loaded);
+				}
+			});
+		}
+
+		/* called on the job's thread */
+		void publish(final P item)
+		{
+			main.post(new Runnable() {
+				@Override
+				public void run()
+				{
+					items.add(item);
+					/* copies, a listener may cancel or join */
+					ArrayList<Ticket> t = new ArrayList<Ticket>(tickets);
+					ArrayList<Listener<P, R>> l =
+							new ArrayList<Listener<P, R>>(listeners);
+					for (int i = 0; i < t.size(); i++) {
+						if (t.get(i).replayed && !t.get(i).cancelled) {
+							l.get(i).onProgress(item);
+						}
+					}
+				}
+			});
+		}
+
+		Ticket add(final Listener<P, R> listener)
+		{
+			final Ticket ticket = new Ticket(this);
+			tickets.add(ticket);
+			listeners.add(listener);
+
+			/* catch up on what was published before, from the message
+			 * queue so the caller has its ticket first */
+			main.post(new Runnable() {
+				@Override
+				public void run()
+				{
+					if (ticket.cancelled) {
+						return;
+					}
+					ticket.replayed = true;
+					for (int i = 0; i < items.size(); i++) {
+						listener.onProgress(items.get(i));
+					}
+					if (finished) {
+						deliver(ticket, listener);
+					}
+				}
+			});
+			return ticket;
+		}
+
+		void leave(Ticket ticket)
+		{
+			int i = tickets.indexOf(ticket);
+			if (i >= 0) {
+				tickets.remove(i);
+				listeners.remove(i);
+			}
+			if (tickets.isEmpty() && !finished) {
+				/* nobody left to load for, let the next join start over */
+				token.cancel();
+				job.cancel();
+				forget();
+			}
+		}
+
+		private void finish(R r)
+		{
+			finished = true;
+			result = r;
+			forget();
+			ArrayList<Ticket> t = new ArrayList<Ticket>(tickets);
+			ArrayList<Listener<P, R>> l =
+					new ArrayList<Listener<P, R>>(listeners);
+			for (int i = 0; i < t.size(); i++) {
+				if (t.get(i).replayed) {
+					deliver(t.get(i), l.get(i));
+				}
+			}
+		}
+
+		private void deliver(Ticket ticket, Listener<P, R> listener)
+		{
+			if (!ticket.cancelled && !ticket.done) {
+				ticket.done = true;
+				listener.onLoaded(result);
+			}
+		}
+
+		private void forget()
+		{
+			if (flights.get(key) == this) {
+				flights.remove(key);
+			}
+		}
+	}
+}
@@ -0,0 +1,576 @@
+package add.contact;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import android.app.Activity;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.telephony.SmsManager;
+import android.util.Log;
+
+/**
+ * SmsOutbox
+ * @author Matt
+ *
+ * Queue of outgoing texts, used to send the user's name to new contacts
+ * without holding up the screen that asked for it.
+ *
+ * Texts are kept in a file until they are sent so they survive the app
+ * being closed, and are sent one at a time on a background thread. Long
+ * texts are split into parts. Each part reports back through a sent
+ * broadcast, and the last part through a delivered broadcast as well. A
+ * text which fails with a temporary error (no service, radio off) is
+ * tried again after a growing delay, up to MAX_ATTEMPTS times. Sending
+ * is rate limited with a token bucket so adding a room full of people
+ * does not trip the carrier's or the phone's own limits on outgoing
+ * texts.
+ *
+ * If the app dies after a text went out but before it was reported sent
+ * the text will be sent again, a repeated name is better than none.
+ *
+ * Listeners are told on the UI thread whenever a text changes state, the
+ * menu screen shows it under its buttons. If nothing is listening the
+ * user is only told about failures, by toast.
+ */
+public class SmsOutbox
+{
+	/**
+	 * Listener
+	 *
+	 * Told on the UI thread when a text changes state.
+	 */
+	public interface Listener
+	{
+		void onTextStatus(long id, String number, int status);
+	}
+
+	/* states of a text */
+	public static final int QUEUED = 0;
+	public static final int SENDING = 1;
+	public static final int SENT = 2;
+	public static final int DELIVERED = 3;
+	public static final int FAILED = 4;
+
+	private static final String TAG = "SmsOutbox";
+	/* name of the queue file in the app's files directory */
+	private static final String OUTBOX_FILE = "sms_outbox";
+	private static final int VERSION = 1;
+
+	private static final String ACTION_SENT = "add.contact.SMS_SENT";
+	private static final String ACTION_DELIVERED =
+			"add.contact.SMS_DELIVERED";
+	private static final String EXTRA_ID = "id";
+	private static final String EXTRA_NUMBER = "number";
+
+	/* text ids and request codes are handed out in blocks kept in these
+	 * preferences, so they do not repeat after a restart and a report left
+	 * over from an earlier run can not pass for a new one */
+	private static final String ID_PREFS = "SmsOutboxIds";
+	private static final String NEXT_ID = "next_id";
+	private static final String NEXT_REQUEST = "next_request";
+	private static final int ID_BLOCK = 256;
+
+	/* sends of one text to try before giving up on it */
+	static final int MAX_ATTEMPTS = 4;
+	/* wait before the first retry, doubled for each one after */
+	private static final long RETRY_DELAY = 30 * 1000;
+	/* how long to wait for the sent report before treating the text as
+	 * failed */
+	private static final long SEND_TIMEOUT = 2 * 60 * 1000;
+
+	/* texts which may be sent back to back */
+	private static final int BURST = 5;
+	/* then one more text every RATE milliseconds */
+	private static final long RATE = 15 * 1000;
+
+	/* the instance shared by all activities */
+	private static SmsOutbox instance;
+
+	private final Context ctx;
+	private final File file;
+	/* all sending happens on this thread */
+	private final Handler worker;
+	/* used to call listeners on the UI thread */
+	private final Handler main = new Handler(Looper.getMainLooper());
+	private final ArrayList<Listener> listeners = new ArrayList<Listener>();
+
+	/* ids and request codes, guarded by this */
+	private final SharedPreferences ids;
+	private long next_id;
+	private long id_limit;
+	/* request codes keep the pending intents of different parts apart */
+	private int next_request;
+	private int request_limit;
+
+	/* below only used on the worker thread */
+
+	/* texts not yet sent, oldest first */
+	private final LinkedList<Text> queue = new LinkedList<Text>();
+	/* the text waiting for its sent reports, or null */
+	private Text in_flight;
+	private final TokenBucket bucket = new TokenBucket(BURST, RATE);
+	private boolean loaded;
+
+	private final Runnable pump = new Runnable() {
+		@Override
+		public void run()
+		{
+			pump();
+		}
+	};
+
+	private final Runnable timeout = new Runnable() {
+		@Override
+		public void run()
+		{
+			if (in_flight != null) {
+				Log.w(TAG, "No sent report for text " + in_flight.id);
+				partsDone(in_flight,
+						SmsManager.RESULT_ERROR_GENERIC_FAILURE);
+			}
+		}
+	};
+
+	/**
+	 * Get the shared outbox, creating it if needed.
+	 */
+	public static synchronized SmsOutbox getInstance(Context ctx)
+	{
+		if (instance == null) {
+			instance = new SmsOutbox(ctx.getApplicationContext());
+		}
+		return instance;
+	}
+
+	private SmsOutbox(Context ctx)
+	{
+		this.ctx = ctx;
+
+		this.file = new File(ctx.getFilesDir(), OUTBOX_FILE);
+		this.ids = ctx.getSharedPreferences(ID_PREFS, 0);
+		this.next_id = ids.getLong(NEXT_ID, 0);
+		this.next_request = ids.getInt(NEXT_REQUEST, 0);
+
+		HandlerThread thread = new HandlerThread(TAG);
+		thread.start();
+		this.worker = new Handler(thread.getLooper());
+
+		/* sent and delivered reports arrive on the worker thread too */
+		IntentFilter filter = new IntentFilter(ACTION_SENT);
+		filter.addAction(ACTION_DELIVERED);
+		ctx.registerReceiver(new BroadcastReceiver() {
+			@Override
+			public void onReceive(Context context, Intent intent)
+			{
+				report(intent.getAction(), intent.getLongExtra(EXTRA_ID, -1),
+						intent.getStringExtra(EXTRA_NUMBER), getResultCode());
+			}
+		}, filter, null, worker);
+	}
+
+	/**
+	 * Queue a text. Returns straight away, listeners are told how it goes.
+	 *
+	 * @return an id for the text, passed to listeners.
+	 */
+	public long send(final String number, final String body)
+	{
+		final long id = nextId();
+		worker.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				load();
+				Text t = new Text(id, number, body);
+				queue.add(t);
+				save();
+				tell(t, QUEUED);
+				pump();
+			}
+		});
+		return id;
+	}
+
+	/**
+	 * Carry on sending any texts left over from an earlier run.
+	 */
+	public void resume()
+	{
+		worker.post(pump);
+	}
+
+	/**
+	 * Register to be told about texts. Call from the UI thread, usually
+	 * in onResume.
+	 */
+	public void addListener(Listener l)
+	{
+		listeners.add(l);
+	}
+
+	/**
+	 * Stop being told about texts, usually in onPause.
+	 */
+	public void removeListener(Listener l)
+	{
+		listeners.remove(l);
+	}
+
+	/**
+	 * Send the next text if one is due, nothing is in flight and the rate
+	 * limit allows. Otherwise come back when it might be.
+	 */
+	private void pump()
+	{
+		load();
+		worker.removeCallbacks(pump);
+		if (in_flight != null || queue.isEmpty()) {
+			return;
+		}
+
+		/* the earliest text which is due */
+		long now = SystemClock.elapsedRealtime();
+		Text next = null;
+		long wake = Long.MAX_VALUE;
+		for (Text t : queue) {
+			if (t.not_before <= now) {
+				next = t;
+				break;
+			}
+			wake = Math.min(wake, t.not_before);
+		}
+		if (next == null) {
+			worker.postDelayed(pump, wake - now);
+			return;
+		}
+
+		long wait = bucket.take(now);
+		if (wait > 0) {
+			worker.postDelayed(pump, wait);
+			return;
+		}
+
+		sendNow(next);
+	}
+
+	private void sendNow(Text t)
+	{
+		SmsManager sms = SmsManager.getDefault();
+		ArrayList<String> parts = sms.divideMessage(t.body);
+		if (parts == null || parts.isEmpty()) {
+			parts = new ArrayList<String>();
+			parts.add(t.body);
+		}
+
+		t.parts = parts.size();
+		t.sent = 0;
+		t.error = Activity.RESULT_OK;
+		t.attempts++;
+		t.started = Metrics.start();
+		in_flight = t;
+		save();
+		tell(t, SENDING);
+
+		ArrayList<PendingIntent> sent = new ArrayList<PendingIntent>();
+		ArrayList<PendingIntent> delivered = new ArrayList<PendingIntent>();
+		for (int i = 0; i < parts.size(); i++) {
+			sent.add(report(ACTION_SENT, t));
+			/* the text is delivered once its last part is */
+			delivered.add(i == parts.size() - 1
+					? report(ACTION_DELIVERED, t) : null);
+		}
+
+		worker.postDelayed(timeout, SEND_TIMEOUT);
+		try {
+			if (parts.size() == 1) {
+				sms.sendTextMessage(t.number, null, parts.get(0),
+						sent.get(0), delivered.get(0));
+			} else {
+				sms.sendMultipartTextMessage(t.number, null, parts, sent,
+						delivered);
+			}
+		} catch (RuntimeException e) {
+			/* bad number or no permission, trying again will not help */
+			Log.w(TAG, "Unable to send text " + t.id, e);
+			t.attempts = MAX_ATTEMPTS;
+			partsDone(t, SmsManager.RESULT_ERROR_GENERIC_FAILURE);
+		}
+	}
+
+	/* a pending intent for one report on one part of a text */
+	private PendingIntent report(String action, Text t)
+	{
+		Intent intent = new Intent(action);
+		intent.setPackage(ctx.getPackageName());
+		intent.putExtra(EXTRA_ID, t.id);
+		intent.putExtra(EXTRA_NUMBER, t.number);
+		/* a one shot intent which never fired, say for a delivery report
+		 * that never came, would otherwise be handed back with its old
+		 * extras */
+		return PendingIntent.getBroadcast(ctx, nextRequest(), intent,
+				PendingIntent.FLAG_ONE_SHOT
+						| PendingIntent.FLAG_UPDATE_CURRENT);
+	}
+
+	private synchronized long nextId()
+	{
+		if (next_id >= id_limit) {
+			id_limit = next_id + ID_BLOCK;
+			ids.edit().putLong(NEXT_ID, id_limit).apply();
+		}
+		return next_id++;
+	}
+
+	private synchronized int nextRequest()
+	{
+		/* by difference, so the codes may wrap around */
+		if (next_request - request_limit >= 0) {
+			request_limit = next_request + ID_BLOCK;
+			ids.edit().putInt(NEXT_REQUEST, request_limit).apply();
+		}
+		return next_request++;
+	}
+
+	/**
+	 * A sent or delivered report for one part of a text.
+	 */
+	private void report(String action, long id, String number, int result)
+	{
+		if (ACTION_DELIVERED.equals(action)) {
+			/* delivery reports come well after the text left, they only
+			 * matter to the listeners */
+			if (result == Activity.RESULT_OK) {
+				tell(id, number, DELIVERED);
+			}
+			return;
+		}
+
+		Text t = in_flight;
+		if (t == null || t.id != id) {
+			/* a late report for a text we gave up on */
+			return;
+		}
+		if (result != Activity.RESULT_OK) {
+			t.error = result;
+		}
+		if (++t.sent == t.parts) {
+			partsDone(t, t.error);
+		}
+	}
+
+	/**
+	 * Every part of the in flight text has reported, or we stopped
+	 * waiting. Retry, give up or mark it sent.
+	 */
+	private void partsDone(Text t, int error)
+	{
+		worker.removeCallbacks(timeout);
+		in_flight = null;
+		Metrics.SMS_SEND.stop(t.started, t.parts, t.body.length());
+
+		if (error == Activity.RESULT_OK) {
+			queue.remove(t);
+			save();
+			tell(t, SENT);
+		} else if (t.attempts < MAX_ATTEMPTS
+				&& error != SmsManager.RESULT_ERROR_NULL_PDU) {
+			long delay = RETRY_DELAY << (t.attempts - 1);
+			t.not_before = SystemClock.elapsedRealtime() + delay;
+			save();
+			tell(t, QUEUED);
+		} else {
+			queue.remove(t);
+			save();
+			tell(t, FAILED);
+		}
+		pump();
+	}
+
+	private void tell(Text t, int status)
+	{
+		tell(t.id, t.number, status);
+	}
+
+	/* tell the listeners on the UI thread */
+	private void tell(final long id, final String number, final int status)
+	{
+		main.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				if (!listeners.isEmpty()) {
+					for (Listener l : new ArrayList<Listener>(listeners)) {
+						l.onTextStatus(id, number, status);
+					}
+				} else if (status == FAILED) {
+					Util.toast_msg(ctx, "Failed to send text to " + number);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Read texts left over from an earlier run. Only reads the file once.
+	 */
+	private void load()
+	{
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+		} catch (FileNotFoundException e) {
+			return;
+		}
+		try {
+			if (in.readInt() != VERSION) {
+				return;
+			}
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String number = in.readUTF();
+				String body = in.readUTF();
+				Text t = new Text(nextId(), number, body);
+				t.attempts = in.readInt();
+				queue.add(t);
+			}
+		} catch (EOFException e) {
+			/* keep what could be read */
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to read the outbox", e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				/* nothing more to read anyway */
+			}
+		}
+	}
+
+	/**
+	 * Write the texts not yet sent, to a new file first so a crash leaves
+	 * the old or the new queue.
+	 */
+	private void save()
+	{
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			FileOutputStream f = new FileOutputStream(tmp);
+			DataOutputStream o = new DataOutputStream(
+					new BufferedOutputStream(f));
+			try {
+				o.writeInt(VERSION);
+				o.writeInt(queue.size());
+				for (Text t : queue) {
+					o.writeUTF(t.number);
+					o.writeUTF(t.body);
+					o.writeInt(t.attempts);
+				}
+				o.flush();
+				f.getFD().sync();
+			} finally {
+				o.close();
+			}
+			if (!tmp.renameTo(file)) {
+				Log.w(TAG, "Unable to replace " + file);
+			}
+		} catch (IOException e) {
+			/* the text still goes out, it just will not survive a restart */
+			Log.w(TAG, "Unable to save the outbox", e);
+		}
+	}
+
+	/**
+	 * Text
+	 *
+	 * One text waiting to be sent, and how far sending it has got.
+	 */
+	private static class Text
+	{
+		final long id;
+		final String number;
+		final String body;
+		/* sends tried so far */
+		int attempts;
+		/* elapsed realtime before which it should not be sent */
+		long not_before;
+
+		/* parts of the current send, parts reported sent and the last
+		 * error reported for a part */
+		int parts;
+		int sent;
+		int error;
+		/* Metrics start time of the current send */
+		long started;
+
+		Text(long id, String number, String body)
+		{
+			this.id = id;
+			this.number = number;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * TokenBucket
+	 *
+	 * Allows bursts of up to capacity sends, then one send per period.
+	 */
+	private static class TokenBucket
+	{
+		private final int capacity;
+		private final long period;
+		private double tokens;
+		private long last = -1;
+
+		TokenBucket(int capacity, long period)
+		{
+			this.capacity = capacity;
+			this.period = period;
+			this.tokens = capacity;
+		}
+
+		/**
+		 * Take a token if there is one.
+		 *
+		 * @return 0 if a token was taken, otherwise how many milliseconds
+		 * until there is one.
+		 */
+		long take(long now)
+		{
+			if (last >= 0) {
+				tokens = Math.min(capacity,
+						tokens + (double) (now - last) / period);
+			}
+			last = now;
+			if (tokens >= 1) {
+				tokens -= 1;
+				return 0;
+			}
+			return (long) Math.ceil((1 - tokens) * period);
+		}
+	}
+}
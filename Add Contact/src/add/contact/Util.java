@@ -1,18 +1,25 @@
 package add.contact;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Locale;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.ContactsContract;
-import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.PhoneLookup;
+import android.provider.ContactsContract.RawContacts;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
+import android.telephony.TelephonyManager;
 import android.widget.Toast;
 
 /**
@@ -20,47 +27,64 @@ import android.widget.Toast;
  * @author Matt
  *
  * This class provides utility methods used throughout hte application.
- * 	i) isInteger - to check if a string is an int for phone number validation.
+ * 	i) numberKey - to match phone numbers written in different forms.
  *  ii) toast_msg - to pop up toast messages.
  *  iii) addContact - add contacts to the phone book.
+ *  iv) addContacts - add many contacts to the phone book at once.
  */
 public class Util 
 {
 
-	/* check if a sting is an int. used to validate phone numbers 
-     * taken from:
-     * http://stackoverflow.com/questions/237159/whats-the-best-way-to-
-     * check-to-see-if-a-string-represents-an-integer-in-java*/
-    public static boolean isInteger(String str) {
-        if (str == null) {
-                return false;
-        }
-        int length = str.length();
-        if (length == 0) {
-                return false;
-        }
-        int i = 0;
-        if (str.charAt(0) == '-') {
-                if (length == 1) {
-                        return false;
-                }
-                i = 1;
-        }
-        for (; i < length; i++) {
-                char c = str.charAt(i);
-                if (c <= '/' || c >= ':') {
-                        return false;
-                }
-        }
-        return true;
+    /**
+     * Reduce a phone number to a key which is the same for different
+     * formattings of the same number, so "+1 (555) 123-4567" and 
+     * "5551234567" compare equal. See PhoneNumber.matchKey.
+     * 
+     * @param number - phone number in any format, may be null.
+     * @return the key of the number or -1 if it is not a phone number.
+     */
+    public static long numberKey(CharSequence number)
+    {
+    	return PhoneNumber.matchKey(PhoneNumber.parse(number, region));
+    }
+    
+    /* country the phone is in, it decides what a leading 011 means. null
+     * until setRegion is called, numbers are then read without it */
+    private static volatile String region;
+    
+    /**
+     * Find the country the phone is in, from the SIM, else the network it
+     * is on, else the locale. Called once when the application starts.
+     * 
+     * @param ctx - any context, to reach the telephony service.
+     */
+    public static void setRegion(Context ctx)
+    {
+    	TelephonyManager tm = (TelephonyManager) 
+    			ctx.getSystemService(Context.TELEPHONY_SERVICE);
+    	String r = null;
+    	if( tm != null )
+    	{
+    		r = tm.getSimCountryIso();
+    		if( r == null || r.length() == 0 )
+    		{
+    			r = tm.getNetworkCountryIso();
+    		}
+    	}
+    	if( r == null || r.length() == 0 )
+    	{
+    		r = Locale.getDefault().getCountry();
+    	}
+    	region = r.length() == 0 ? null : r;
     }
 	
     /**
      * Pop up a toast message from an activity.
-     * @param a - the calling activity.
+     * @param a - the calling activity, or any context if the message is
+     * 		not tied to a screen.
      * @param txt - the text of the toast message.
      */
-    public static void toast_msg(Activity a, String txt)
+    public static void toast_msg(Context a, String txt)
     {
 	    Context ctx = a.getApplicationContext();
 	    int duration = Toast.LENGTH_SHORT;
@@ -68,9 +92,15 @@ public class Util
 	    toast.show();
     }
     
+    /* project only display name */
+    private static final Projection PROFILE_NAME = 
+    		new Projection(ContactsContract.Contacts.DISPLAY_NAME);
+    
     /**
      * Method to guess at the users name so that they may not have to
-     * manually enter the name.
+     * manually enter the name. Reads the owner's profile, which needs 
+     * version 14, and does provider I/O so it is not for the UI thread,
+     * see OwnerName.
      * 
      * @param cr content resolver to search the phone
      * @return a best effort attempt at the phone's user's name
@@ -84,30 +114,22 @@ public class Util
     	/* break based on os version since user name retreival
     	 * was not supported until verion 14    	 */
     	if (android.os.Build.VERSION.SDK_INT >= 14) {
-        	System.out.println("Entered version specific name look up");
         	/* get content uri */
     		Uri uri = ContactsContract.Profile.CONTENT_URI;
-        	/* project only display name */
-        	String[] projection = new String []{
-        			ContactsContract.Contacts.DISPLAY_NAME
-        	};
         	/* get the cursor for query */
-        	Cursor c = cr.query(uri, projection, null, null, null);
-        	
-        	while( c.moveToNext() ){
-        	for( String s : c.getColumnNames())
+        	Cursor c = PROFILE_NAME.query(cr, uri, null, null, null);
+        	if( c == null )
         	{
-        		System.out.println(s + " : " + c.getString(c.getColumnIndex(s)));
-        	}}
+        		return result;
+        	}
         	
         	/* retreive the name */
         	try
         	{
-        		if( c.moveToFirst() )
+        		Projection.Row row = PROFILE_NAME.bind(c);
+        		if( c.moveToFirst() && !row.isNull(0) )
         		{
-        			result = c.getString(
-        					c.getColumnIndex(
-        					ContactsContract.Contacts.DISPLAY_NAME));
+        			result = row.getString(0);
         		}
         	}
         	finally
@@ -120,70 +142,17 @@ public class Util
     }
     
     
-    /**
-     * Determine which account has visible contacts and get that one.
-     * This is done by looking at contacts in the visible group and 
-     * checking their account 
-     * 
-     * @return an array of 3 values: group id, account name and account type
-     * 		of a visible group in the users contact list which we should add
-     * 		new contacts to. 
-     */
-    private static String[] getVisibleAccount(ContentResolver cr)
-    {
-        /* return variables and visibilty of contact check */
-        String acct_name = null;
-        String acct_type = null;
-        String group_id = null;
-        String visible = "0";
-        
-        /* set fields to get */
-        String[] fields = new String[] {
-                GroupMembership.GROUP_SOURCE_ID,
-                Contacts.IN_VISIBLE_GROUP, 
-                ContactsContract.Settings.ACCOUNT_NAME, 
-                ContactsContract.Settings.ACCOUNT_TYPE};
-
-        /* pull rows of db, make sure mimetype is a groupmembership 
-         * to get group id*/
-        Cursor c = cr.query(Data.CONTENT_URI, fields,
-                 Data.MIMETYPE + "='" + GroupMembership.CONTENT_ITEM_TYPE + "'",
-                 null, null);
-        
-        /* Check rows to find an visible acct/group combination */
-        while(c.moveToNext())
-        {
-        	acct_name = c.getString(c.getColumnIndex(
-        			ContactsContract.Settings.ACCOUNT_NAME));
-        	acct_type = c.getString(c.getColumnIndex(
-        			ContactsContract.Settings.ACCOUNT_TYPE));
-        	group_id = c.getString(c.getColumnIndex(
-        			GroupMembership.GROUP_SOURCE_ID));
-        	visible = c.getString(c.getColumnIndex(
-        			Contacts.IN_VISIBLE_GROUP));
-        	
-        	/* if we got a valid visible group, break otherwise keep looking */
-        	if(acct_name != null && acct_type != null && group_id != null 
-        			&& Integer.parseInt(visible) > 0)
-        	{
-        		break;
-        	}
-        	else
-        	{
-        		acct_name = null;
-        		acct_type = null;
-        		group_id = null;
-        		visible = "0";
-        	}
-        }
-
-        /* set return values */
-        String[] out = new String[3];
-        out[0] = group_id;
-        out[1] = acct_name;
-        out[2] = acct_type;
-        return out;
-    } 
+    /* contacts written per applyBatch call, each takes OPS_PER_CONTACT 
+     * operations and the contacts provider allows at most 500 operations
+     * between yield points */
+    private static final int CONTACTS_PER_BATCH = 25;
+    /* operations used to insert one contact */
+    private static final int OPS_PER_CONTACT = 4;
+    /* longest name we will store for a new contact */
+    private static final int MAX_NAME_LENGTH = 100;
+    /* shared by every caller of capitalizeName */
+    private static final NameNormalizer NAMES =
+    		new NameNormalizer(Locale.getDefault(), MAX_NAME_LENGTH);
 
     /** 
      * Method which does the dirty work of inserting a new contact into the
@@ -195,103 +164,306 @@ public class Util
      */
     public static void addContact(Activity a, String phone, String name)
     {
-    	/* correct caps */
-    	name = capitalizeName(name);
-    	
-    	/* get the account and group info */
-    	String[] acct_info = getVisibleAccount(a.getContentResolver());
-    	String group_id = acct_info[0];
-    	String acct_name = acct_info[1]; 
-    	String acct_type = acct_info[2];
+    	ArrayList<NewContact> contacts = new ArrayList<NewContact>(1);
+    	contacts.add(new NewContact(phone, name));
+    	AddResult result = addContacts(a, contacts);
     	
     	/* check to make sure such a group exists, if not we are S.O.L. 
     	 * so alert the user.*/
-    	if(group_id == null || acct_name == null || acct_type == null)
+    	if(result.isMissingAccount())
     	{
     		toast_msg(a, "Unable to find valid contact group. " +
     				"This function may not work for you.");
     	}
-    	else 
+    	else if(result.isAdded(0))
     	{
-    		/* create a batch operation to perform on the database */
-	        ArrayList<ContentProviderOperation> ops = 
-	        		new ArrayList<ContentProviderOperation>();
-	        /* create contact with target account info */
-	        ops.add(ContentProviderOperation.newInsert(
-	        		ContactsContract.RawContacts.CONTENT_URI)
-	                .withValue(ContactsContract.RawContacts.
-	                		ACCOUNT_TYPE, acct_type)
-	                .withValue(ContactsContract.RawContacts.
-	                		ACCOUNT_NAME, acct_name)
-	                .build());
-	        /* add the contact name */
-	        ops.add(ContentProviderOperation.newInsert(ContactsContract.
-	        		Data.CONTENT_URI)
-	                .withValueBackReference(Data.RAW_CONTACT_ID, 0)
-	                .withValue(ContactsContract.Data.MIMETYPE,
-	                        ContactsContract.CommonDataKinds.StructuredName.
-	                        CONTENT_ITEM_TYPE)
-	                .withValue(ContactsContract.CommonDataKinds.StructuredName.
-	                		DISPLAY_NAME, name)
-	                .build());
-	        /* add the contact number */
-	        ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.
-	        		CONTENT_URI)
-	                .withValueBackReference(Data.RAW_CONTACT_ID, 0)
-	                .withValue(ContactsContract.Data.MIMETYPE,
-	                	ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE)
-	                .withValue(ContactsContract.CommonDataKinds.Phone.NUMBER, 
-	                		phone)
-	                .withValue(ContactsContract.CommonDataKinds.Phone.TYPE, 
-	                		ContactsContract.CommonDataKinds.Phone.TYPE_MOBILE)
-	                .build());
-	        /* add teh contact group */
-	        ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.
-	        		CONTENT_URI)
-	                .withValueBackReference(Data.RAW_CONTACT_ID, 0)
-	                .withValue(GroupMembership.GROUP_SOURCE_ID, group_id)
-	                .withValue(GroupMembership.MIMETYPE, 
-	                		GroupMembership.CONTENT_ITEM_TYPE)
-	                .build());
-	
-	        /* apply the the set of operations defined above */
-	        try 
-	        {
-	        	a.getContentResolver().applyBatch(
-	        			ContactsContract.AUTHORITY, ops);
-	        	toast_msg(a, "Added contact: "+name);
-	        } 
-	        catch (Exception e) 
-	        {
-	            // Display warning
-	        	toast_msg(a, "Failed to create new contact.");
-	        }
+    		toast_msg(a, "Added contact: "+capitalizeName(name));
+    	}
+    	else
+    	{
+    		// Display warning
+    		toast_msg(a, "Failed to create new contact.");
     	}
     }
     
     /**
-     * capitalize the first letter in each word in a persons name.
+     * Insert many new contacts into the users phone database at once. 
      * 
-     * @param name the name the be capitalized
-     * @return a correctly capitalized version of the the name. 
+     * The target account is looked up once and the contacts are written 
+     * in chunks of CONTACTS_PER_BATCH per applyBatch call, with a yield 
+     * point before each contact so other users of the provider are not 
+     * locked out for the whole chunk. If a chunk fails its contacts are 
+     * retried one at a time, skipping any which made it in before the 
+     * failure, so one bad contact does not sink the others. Contacts whose
+     * number turns out to be in the phone book already are reported as
+     * duplicates.
+     * 
+     * This does provider I/O and should not be called on the UI thread.
+     * 
+     * @param ctx - context to get the content resolver from.
+     * @param contacts - the contacts to add.
+     * @return which contacts were added and which failed.
      */
-    private static String capitalizeName( String name ) 
+    public static AddResult addContacts(Context ctx, 
+    		Collection<NewContact> contacts)
     {
-    	/* split the input on white space */
-    	String[] words = name.split("\\s+");
+    	AddResult result = new AddResult(contacts);
+    	ContentResolver cr = ctx.getContentResolver();
     	
-    	/* build the string */
-    	StringBuilder sb = new StringBuilder();
-    	for( String word : words)
+    	/* get the account and group info */
+    	String[] acct_info = AccountCache.getInstance(ctx).getTargetAccount();
+    	if(acct_info[0] == null || acct_info[1] == null || acct_info[2] == null)
     	{
-    		sb.append(Character.toUpperCase(word.charAt(0)))
-    	        .append( word.substring(1).toLowerCase() );
+    		result.setNoAccount();
+    		return result;
+    	}
+    	
+    	/* raw contacts above this id were added by this call */
+    	long before_id = highestRawContactId(cr);
+    	
+    	for(int start = 0; start < result.size(); start += CONTACTS_PER_BATCH)
+    	{
+    		int end = Math.min(start + CONTACTS_PER_BATCH, result.size());
     		
-    		sb.append(" ");
+    		/* create a batch operation to perform on the database */
+    		ArrayList<ContentProviderOperation> ops = 
+    				new ArrayList<ContentProviderOperation>(
+    						(end - start) * OPS_PER_CONTACT);
+    		for(int i = start; i < end; i++)
+    		{
+    			addContactOps(ops, result.getContact(i), acct_info);
+    		}
+    		
+    		/* apply the chunk, on failure fall back to one at a time */
+    		long started = Metrics.start();
+    		try 
+    		{
+    			ContentProviderResult[] res = cr.applyBatch(
+    					ContactsContract.AUTHORITY, ops);
+    			Metrics.APPLY_BATCH.stop(started, 0, ops.size());
+    			for(int i = start; i < end; i++)
+    			{
+    				result.setAdded(i, ContentUris.parseId(
+    						res[(i - start) * OPS_PER_CONTACT].uri));
+    			}
+    		} 
+    		catch (Exception e) 
+    		{
+    			Metrics.APPLY_BATCH.stop(started, 0, ops.size());
+    			retryEach(cr, result, start, end, acct_info, before_id);
+    		}
     	}
     	
-    	/* return the string, trim trailing white space. */
-    	return sb.toString().trim();
+    	return result;
+    }
+    
+    /**
+     * Add contacts of a failed chunk one at a time. Some of the chunk may
+     * have been committed at a yield point before the failure, so the 
+     * provider is asked about each number first rather than an index 
+     * which may not have heard of the commit yet: a contact added since 
+     * before_id is counted as added, any other owner of the number makes
+     * it a duplicate.
+     */
+    private static void retryEach(ContentResolver cr, AddResult result, 
+    		int start, int end, String[] acct_info, long before_id)
+    {
+    	for(int i = start; i < end; i++)
+    	{
+    		NewContact contact = result.getContact(i);
+    		long raw_id = findAdded(cr, contact.getPhone(), before_id);
+    		if(raw_id >= 0)
+    		{
+    			result.setAdded(i, raw_id);
+    			continue;
+    		}
+    		if(isKnownNumber(cr, contact.getPhone()))
+    		{
+    			result.setDuplicate(i);
+    			continue;
+    		}
+    		
+    		ArrayList<ContentProviderOperation> ops = 
+    				new ArrayList<ContentProviderOperation>(OPS_PER_CONTACT);
+    		addContactOps(ops, contact, acct_info);
+    		long started = Metrics.start();
+    		try
+    		{
+    			ContentProviderResult[] res = cr.applyBatch(
+    					ContactsContract.AUTHORITY, ops);
+    			result.setAdded(i, ContentUris.parseId(res[0].uri));
+    		}
+    		catch (Exception e)
+    		{
+    			result.setFailed(i, e);
+    		}
+    		finally
+    		{
+    			Metrics.APPLY_BATCH.stop(started, 0, ops.size());
+    		}
+    	}
+    }
+    
+    /* project only the row id */
+    private static final Projection RAW_ID = new Projection(RawContacts._ID);
+    /* project only the raw contact of a phone row */
+    private static final Projection PHONE_OWNER = 
+    		new Projection(Phone.RAW_CONTACT_ID);
+    /* project only the contact id of a phone lookup */
+    private static final Projection LOOKUP_ID = 
+    		new Projection(PhoneLookup._ID);
+    
+    /**
+     * @return the highest raw contact id in the phone book, or -1 if there
+     * are none or it could not be read.
+     */
+    private static long highestRawContactId(ContentResolver cr)
+    {
+    	Uri uri = RawContacts.CONTENT_URI.buildUpon()
+    			.appendQueryParameter("limit", "1")
+    			.build();
+    	Cursor c = RAW_ID.query(cr, uri, null, null, 
+    			RawContacts._ID + " DESC");
+    	if( c == null )
+    	{
+    		return -1;
+    	}
+    	try
+    	{
+    		return c.moveToFirst() ? RAW_ID.bind(c).getLong(0) : -1;
+    	}
+    	finally
+    	{
+    		c.close();
+    	}
+    }
+    
+    /**
+     * @return the raw contact id of a contact with exactly this number 
+     * added after before_id, or -1 if there is none.
+     */
+    private static long findAdded(ContentResolver cr, String phone, 
+    		long before_id)
+    {
+    	Cursor c = PHONE_OWNER.query(cr, Phone.CONTENT_URI, 
+    			Phone.NUMBER + " = ? AND " + Phone.RAW_CONTACT_ID + " > ?", 
+    			new String[] { phone, Long.toString(before_id) }, null);
+    	if( c == null )
+    	{
+    		return -1;
+    	}
+    	try
+    	{
+    		return c.moveToFirst() ? PHONE_OWNER.bind(c).getLong(0) : -1;
+    	}
+    	finally
+    	{
+    		c.close();
+    	}
+    }
+    
+    /**
+     * @return true if any contact has this number, in any format.
+     */
+    private static boolean isKnownNumber(ContentResolver cr, String phone)
+    {
+    	if( numberKey(phone) < 0 )
+    	{
+    		/* not a number the provider could match either */
+    		return false;
+    	}
+    	Uri uri = Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, 
+    			Uri.encode(phone));
+    	Cursor c = LOOKUP_ID.query(cr, uri, null, null, null);
+    	if( c == null )
+    	{
+    		return false;
+    	}
+    	try
+    	{
+    		return c.moveToFirst();
+    	}
+    	finally
+    	{
+    		c.close();
+    	}
+    }
+    
+    /**
+     * Append the operations which insert one contact to a batch. Back 
+     * references point at the raw contact inserted first so several 
+     * contacts can share a batch.
+     * 
+     * @param ops - batch to append to.
+     * @param contact - the contact to insert.
+     * @param acct_info - group id, account name and account type to add
+     * 		the contact to.
+     */
+    private static void addContactOps(ArrayList<ContentProviderOperation> ops,
+    		NewContact contact, String[] acct_info)
+    {
+    	String group_id = acct_info[0];
+    	String acct_name = acct_info[1]; 
+    	String acct_type = acct_info[2];
+    	/* correct caps */
+    	String name = capitalizeName(contact.getName());
+    	/* index of the raw contact insert for back references */
+    	int raw = ops.size();
+    	
+        /* create contact with target account info, this is also where
+         * the provider may yield between contacts */
+        ops.add(ContentProviderOperation.newInsert(
+        		ContactsContract.RawContacts.CONTENT_URI)
+                .withValue(ContactsContract.RawContacts.
+                		ACCOUNT_TYPE, acct_type)
+                .withValue(ContactsContract.RawContacts.
+                		ACCOUNT_NAME, acct_name)
+                .withYieldAllowed(true)
+                .build());
+        /* add the contact name */
+        ops.add(ContentProviderOperation.newInsert(ContactsContract.
+        		Data.CONTENT_URI)
+                .withValueBackReference(Data.RAW_CONTACT_ID, raw)
+                .withValue(ContactsContract.Data.MIMETYPE,
+                        ContactsContract.CommonDataKinds.StructuredName.
+                        CONTENT_ITEM_TYPE)
+                .withValue(ContactsContract.CommonDataKinds.StructuredName.
+                		DISPLAY_NAME, name)
+                .build());
+        /* add the contact number */
+        ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.
+        		CONTENT_URI)
+                .withValueBackReference(Data.RAW_CONTACT_ID, raw)
+                .withValue(ContactsContract.Data.MIMETYPE,
+                	ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE)
+                .withValue(ContactsContract.CommonDataKinds.Phone.NUMBER, 
+                		contact.getPhone())
+                .withValue(ContactsContract.CommonDataKinds.Phone.TYPE, 
+                		ContactsContract.CommonDataKinds.Phone.TYPE_MOBILE)
+                .build());
+        /* add teh contact group */
+        ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.
+        		CONTENT_URI)
+                .withValueBackReference(Data.RAW_CONTACT_ID, raw)
+                .withValue(GroupMembership.GROUP_SOURCE_ID, group_id)
+                .withValue(GroupMembership.MIMETYPE, 
+                		GroupMembership.CONTENT_ITEM_TYPE)
+                .build());
+    }
+    
+    /**
+     * capitalize the first letter in each word in a persons name, see
+     * NameNormalizer for the rules.
+     * 
+     * @param name the name the be capitalized
+     * @return a correctly capitalized version of the the name. 
+     */
+    static String capitalizeName( String name ) 
+    {
+    	/* the normalizer reuses its buffer so calls take turns */
+    	synchronized (NAMES) {
+    		return NAMES.normalize(name);
+    	}
     }
     
 }
\ No newline at end of file
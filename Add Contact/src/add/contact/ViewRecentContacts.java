@@ -1,26 +1,31 @@
 package add.contact;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.File;
 
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.provider.ContactsContract;
 import android.support.v4.app.FragmentActivity;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.MenuItem.OnMenuItemClickListener;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
-import android.widget.ArrayAdapter;
-import android.widget.ListAdapter;
+import android.widget.BaseAdapter;
+import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.content.ContentResolver;
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
  
 /**
@@ -30,23 +35,200 @@ import android.database.Cursor;
  * This activity allows users to view their contacts list in the most
  * recently added order. The layout is a simple list of contacts, when 
  * clicked they display the contact page for that contact.
+ * 
+ * The loaded list is kept when the user comes back from a contact page. 
+ * It is only brought up to date if the contacts changed in the meantime, 
+ * in the background and without going back to the loading page. The 
+ * newest contacts are also saved in a ContactSnapshot so the next launch 
+ * can show them before the contacts provider has been asked.
+ * 
+ * A search box above the list filters the contacts loaded so far by name
+ * through a NameIndex, keeping them in order of addition.
  */
 public class ViewRecentContacts extends FragmentActivity 
 {
-	/* copy of the async contact loader task, used to cancel if necessary */
-	private LoadContacts retreiver;
+	/* name of the snapshot file in the app's files directory */
+	private static final String SNAPSHOT_FILE = "recent_contacts";
+	/* number of contacts fetched per page */
+	private static final int PAGE_SIZE = 50;
+	/* start fetching the next page when this close to the end */
+	private static final int PREFETCH = 20;
+	
+	/* place in the load of contacts under way, used to cancel it */
+	private SharedLoader.Ticket retreiver;
+	/* true if that load is a refresh rather than a page */
+	private boolean refreshing;
+	/* adapter over the pages loaded so far, null until the first page */
+	private RecentContactsAdapter adapter;
+	/* row id of the oldest contact loaded, the next page starts below it */
+	private long oldest_id;
+	/* row id of the newest contact loaded, anything above it is new */
+	private long newest_id;
+	/* false once a page came back short and there is nothing older */
+	private boolean has_more;
+	/* the newest contacts as last shown, saved between launches */
+	private ContactSnapshot snapshot;
+	
+	/* set when contacts change after the list was loaded */
+	private volatile boolean dirty;
+	private final ContentObserver observer = new ContentObserver(null)
+	{
+		@Override
+		public void onChange(boolean selfChange)
+		{
+			dirty = true;
+		}
+	};
 	
 	@Override
 	public void onCreate(Bundle savedInstanceState)
 	{
 		/* display loading ui while the contacs load */
 		super.onCreate(savedInstanceState);
+		
+		/* note changes to contacts so the list can catch up on return */
+		getContentResolver().registerContentObserver(
+				ContactsContract.AUTHORITY_URI, true, observer);
+		
+		/* show the list as it was last time if we can, otherwise wait 
+		 * for the first page. A small local read, done here on purpose 
+		 * so the list is there on first draw */
+		snapshot = new ContactSnapshot(new File(getFilesDir(), 
+				SNAPSHOT_FILE));
+		ContactRows saved = snapshot.read();
+		if( saved != null && saved.size > 0 )
+		{
+			showSnapshot(saved);
+		}
+		else
+		{
+			loadFirstPage();
+		}
+    }
+	
+	/**
+	 * Show contacts saved by an earlier launch and check them against the 
+	 * contacts provider in the background.
+	 */
+	private void showSnapshot(ContactRows saved)
+	{
+		showList();
+		adapter.addPage(saved);
+		oldest_id = saved.rows[saved.size - 1];
+		newest_id = saved.rows[0];
+		has_more = snapshot.hasMore();
+		refresh();
+	}
+	
+	@Override
+	public void onDestroy()
+	{
+		super.onDestroy();
+		getContentResolver().unregisterContentObserver(observer);
+	}
+	
+	/**
+	 * Forget anything loaded so far, show the loading page and fetch the 
+	 * newest page of contacts.
+	 */
+	private void loadFirstPage()
+	{
         setContentView(R.layout.progress);
+        adapter = null;
+        oldest_id = Long.MAX_VALUE;
+        newest_id = -1;
+        has_more = true;
+        /* everything is read fresh, older changes do not matter */
+        dirty = false;
 
         /* Execute task to get contact list. */
-        retreiver = new LoadContacts(getContentResolver());
-        retreiver.execute();
-    }
+        if( retreiver != null )
+        {
+        	retreiver.cancel();
+        }
+        loadPage();
+	}
+	
+	/**
+	 * Fetch the page of contacts after the ones already shown, unless one
+	 * is already on its way or there are no more.
+	 */
+	private void loadNextPage()
+	{
+		if( !has_more || adapter == null || 
+				(retreiver != null && retreiver.isActive()) )
+		{
+			return;
+		}
+		loadPage();
+	}
+	
+	/* load the page of contacts below oldest_id */
+	private void loadPage()
+	{
+		refreshing = false;
+		retreiver = SharedLoader.getInstance().join(
+				"recent_contacts/page/" + oldest_id, 
+				/* the first page fills an empty screen */
+				adapter == null ? Scheduler.PRIORITY_HIGH 
+						: Scheduler.PRIORITY_NORMAL,
+				new LoadContacts(
+						getApplicationContext().getContentResolver(), oldest_id),
+				new SharedLoader.Listener<Void, ContactRows>()
+				{
+					@Override
+					public void onProgress(Void item)
+					{
+					}
+
+					@Override
+					public void onLoaded(ContactRows page)
+					{
+						onPageLoaded(page);
+					}
+				});
+	}
+	
+	/**
+	 * Bring the contacts already shown up to date in the background, the
+	 * list stays on screen while it happens.
+	 */
+	private void refresh()
+	{
+		if( adapter.getRows().size == 0 )
+		{
+			/* no range to check, just look again */
+			loadFirstPage();
+			return;
+		}
+		if( retreiver != null )
+		{
+			retreiver.cancel();
+		}
+		dirty = false;
+		refreshing = true;
+		/* the job reads the rows off the ui thread, hand it a copy */
+		ContactRows loaded = adapter.getRows().head(Integer.MAX_VALUE);
+		retreiver = SharedLoader.getInstance().join(
+				"recent_contacts/refresh/" + oldest_id + "/" + newest_id, 
+				Scheduler.PRIORITY_LOW,
+				new RefreshContacts(
+						getApplicationContext().getContentResolver(), loaded,
+						oldest_id, newest_id),
+				new SharedLoader.Listener<Void, Refreshed>()
+				{
+					@Override
+					public void onProgress(Void item)
+					{
+					}
+
+					@Override
+					public void onLoaded(Refreshed result)
+					{
+						onRefreshed(result);
+					}
+				});
+	}
 	
     /*
      * Override to make sure to cancel the async task if the loading is pause.
@@ -58,7 +240,15 @@ public class ViewRecentContacts extends FragmentActivity
     public void onPause()
     {
     	super.onPause();
-    	retreiver.cancel(true);
+    	if( retreiver != null && retreiver.isActive() )
+    	{
+    		retreiver.cancel();
+    		if( refreshing )
+    		{
+    			/* try again next time */
+    			dirty = true;
+    		}
+    	}
     }
 	
 	
@@ -66,11 +256,17 @@ public class ViewRecentContacts extends FragmentActivity
 	public void onRestart()
 	{
 		super.onRestart();
-		/* display loading page */
-        setContentView(R.layout.progress);
-        
-        /* asynchronously load contacts list */
-        new LoadContacts(getContentResolver()).execute();
+		
+		if( adapter == null )
+		{
+			/* the first page never arrived, start again */
+			loadFirstPage();
+		}
+		else if( dirty )
+		{
+			/* keep the list and catch up on what changed */
+			refresh();
+		}
 	}
 	
 	   /**
@@ -82,6 +278,7 @@ public class ViewRecentContacts extends FragmentActivity
     {	
     	MenuInflater inflater = getMenuInflater();
     	inflater.inflate(R.menu.activity_menu, menu);
+    	DebugMetrics.addMenuItem(this, menu);
     	
     	/* create a set name option in the menu */
     	MenuItem setName = menu.getItem(1);
@@ -114,153 +311,504 @@ public class ViewRecentContacts extends FragmentActivity
         return true;
     }
 	
+	/**
+	 * Called with each page of contacts loaded. The first page replaces the
+	 * loading screen with the list, later pages are added to the bottom of
+	 * it.
+	 * 
+	 * @param page - the contacts, or null if they could not be read.
+	 */
+	private void onPageLoaded(ContactRows page)
+	{
+		if( page == null )
+		{
+			/* treat it as the end rather than retrying forever */
+			page = new ContactRows(1);
+		}
+		
+		/* a short page means we reached the oldest contact */
+		if( page.size > 0 )
+		{
+			oldest_id = page.rows[page.size - 1];
+			newest_id = Math.max(newest_id, page.rows[0]);
+		}
+		has_more = page.size == PAGE_SIZE;
+		
+		if( adapter == null )
+		{
+			showList();
+		}
+		adapter.addPage(page);
+		
+		/* only the newest contacts are saved, later pages do not 
+		 * change them */
+		if( adapter.getRows().size - page.size < ContactSnapshot.MAX_ROWS )
+		{
+			snapshot.save(adapter.getRows(), has_more);
+		}
+	}
+	
+	/**
+	 * Called when a refresh is done, the result replaces the rows of the 
+	 * adapter in place so the list keeps its place on screen.
+	 */
+	private void onRefreshed(Refreshed result)
+	{
+		if( result == null )
+		{
+			/* try again next time */
+			dirty = true;
+			return;
+		}
+		ContactRows rows = result.rows;
+		if( rows.size > 0 )
+		{
+			newest_id = Math.max(newest_id, rows.rows[0]);
+		}
+		if( adapter != null )
+		{
+			adapter.replace(rows, result.index);
+			snapshot.save(rows, has_more);
+		}
+	}
+	
 	/**
 	 * LoadContacts
 	 * @author Matt
 	 *
-	 * Asynchronous task to load contacts without blocking the ui thread.
-	 * On completely loading contacts, the task then displays them in a list.
+	 * Job to load one page of contacts without blocking the ui thread.
 	 */
-	class LoadContacts extends AsyncTask<Void, Integer, Integer>
+	static class LoadContacts extends SharedLoader.Job<Void, ContactRows>
     {
     	/* content resolver to query the contacts */
-    	private ContentResolver cr;
-    	/* array to hold names of contacts */
-    	ArrayList<String> names;
-    	/* array to hold contact ids */
-    	ArrayList<String> keys;
+    	private final ContentResolver cr;
+    	/* only contacts with a row id below this are fetched */
+    	private final long before_id;
     	
-    	public LoadContacts( ContentResolver cr )
+    	public LoadContacts( ContentResolver cr, long before_id )
     	{
     		this.cr = cr;
-    		this.names = new ArrayList<String>();
-			this.keys = new ArrayList<String>();
+    		this.before_id = before_id;
     	}
     	
     	/**
-    	 * Method to do in backgroud. Gets a cursor over contacts and 
-    	 * get their lookup key and display name which are saved in class
-    	 * arrays which onPostExecute will use to display the list.
+    	 * Method to do in backgroud. Gets a cursor over the page of 
+    	 * contacts and get their lookup key and display name.
     	 * 
-    	 * THis returns integer because it must return a non-Void value 
-    	 * to trigger the onPostExecute callback.
+		 * The table does not actually store the date a contact was added 
+		 * but it is reasonable to make the assumption that table rows are 
+		 * added at the end of the db so row ids are used to get an ordering
+		 * of contact addition times. Pages are fetched by row id rather 
+		 * than by offset so the provider never has to skip rows.
     	 */
     	@Override
-		protected Integer doInBackground(Void... params) {
-    		Cursor c = getContactsCursor();
+		protected ContactRows load() {
+    		Uri uri = ContactsContract.CommonDataKinds.Phone.CONTENT_URI
+	        		.buildUpon()
+	        		.appendQueryParameter("limit", Integer.toString(PAGE_SIZE))
+	        		.build();
+	        /* make sure we only get visible contacts older than the ones
+	         * we already have */
+	        String selection = VISIBLE + " AND " + 
+	        		ContactsContract.Contacts._ID + " < ?";
+    		long start = Metrics.start();
+    		Cursor c = query(cr, uri, ContactRows.COLUMNS, selection, 
+    				new String[] { Long.toString(before_id) }, NEWEST_FIRST);
+    		ContactRows page = new ContactRows(PAGE_SIZE);
+    		page.read(c, PAGE_SIZE, this);
+    		Metrics.LOAD_CONTACTS.stop(start, page.size, 0);
+			return page;
+		}
+    }
+	
+	/**
+	 * RefreshContacts
+	 * @author Matt
+	 *
+	 * Job to bring the contacts already shown up to date after the 
+	 * contacts changed. Rows added above the newest contact shown are read
+	 * in full. The range already loaded is only checked, reading the row 
+	 * ids and names without making Strings: renamed contacts are patched 
+	 * in place, and only if a row was deleted or hidden is the whole range
+	 * read again.
+	 */
+	static class RefreshContacts extends SharedLoader.Job<Void, Refreshed>
+	{
+		/* columns read to check the rows already loaded */
+		private static final Projection CHECK = new Projection(
+				ContactsContract.Contacts._ID,
+				ContactsContract.Contacts.DISPLAY_NAME);
+		private static final int CHECK_ID = 
+				CHECK.indexOf(ContactsContract.Contacts._ID);
+		private static final int CHECK_NAME = 
+				CHECK.indexOf(ContactsContract.Contacts.DISPLAY_NAME);
+		
+		private final ContentResolver cr;
+		/* a copy of the rows loaded, patched into the result */
+		private final ContactRows loaded;
+		/* oldest and newest row ids loaded */
+		private final long from_id;
+		private final long to_id;
+		
+		public RefreshContacts( ContentResolver cr, ContactRows loaded,
+				long from_id, long to_id )
+		{
+			this.cr = cr;
+			this.loaded = loaded;
+			this.from_id = from_id;
+			this.to_id = to_id;
+		}
+		
+		@Override
+		protected Refreshed load()
+		{
+			long start = Metrics.start();
+			Refreshed result = new Refreshed();
+			/* the rows added since, newest first */
+			String selection = VISIBLE + " AND " + 
+					ContactsContract.Contacts._ID + " > ?";
+			Cursor c = query(cr, 
+					ContactsContract.CommonDataKinds.Phone.CONTENT_URI, 
+					ContactRows.COLUMNS, selection, 
+					new String[] { Long.toString(to_id) }, NEWEST_FIRST);
+			result.rows.read(c, Integer.MAX_VALUE, this);
 			
+			if( checkLoaded() )
+			{
+				result.rows.append(loaded);
+			}
+			else if( !isCancelled() )
+			{
+				/* rows went away, read the loaded range again */
+				selection = VISIBLE + " AND " + 
+						ContactsContract.Contacts._ID + " BETWEEN ? AND ?";
+				c = query(cr, 
+						ContactsContract.CommonDataKinds.Phone.CONTENT_URI, 
+						ContactRows.COLUMNS, selection, 
+						new String[] { Long.toString(from_id), 
+						Long.toString(to_id) }, NEWEST_FIRST);
+				result.rows.read(c, Integer.MAX_VALUE, this);
+			}
+			Metrics.REFRESH_CONTACTS.stop(start, result.rows.size, 0);
+			/* build the search index here rather than on the ui thread 
+			 * since the range may be long */
+			start = Metrics.start();
+			for( int i = 0; i < result.rows.size && !isCancelled(); i++ )
+			{
+				result.index.add(result.rows.names[i]);
+			}
+			Metrics.INDEX_NAMES.stop(start, result.index.size(), 0);
+			return isCancelled() ? null : result;
+		}
+		
+		/**
+		 * Check the loaded rows against the provider and patch the names
+		 * of renamed contacts.
+		 * 
+		 * @return false if a row was deleted or hidden, or the check could
+		 * not be done.
+		 */
+		private boolean checkLoaded()
+		{
+			String selection = VISIBLE + " AND " + 
+					ContactsContract.Contacts._ID + " BETWEEN ? AND ?";
+			Cursor c = query(cr, 
+					ContactsContract.CommonDataKinds.Phone.CONTENT_URI, 
+					CHECK, selection, new String[] { Long.toString(from_id), 
+					Long.toString(to_id) }, NEWEST_FIRST);
+			if( c == null )
+			{
+				return false;
+			}
+			Projection.Chars name = new Projection.Chars(64);
+			int i = 0;
 			try
 			{
-				while(c.moveToNext())
+				Projection.Row row = CHECK.bind(c);
+				while( next(c) )
 				{
-					String name = c.getString(c.getColumnIndex(
-							ContactsContract.Contacts.DISPLAY_NAME));
-					String key = c.getString(c.getColumnIndex(
-							ContactsContract.Contacts.LOOKUP_KEY));
-					this.keys.add(key);
-					this.names.add(name);
+					if( i == loaded.size || 
+							row.getLong(CHECK_ID) != loaded.rows[i] )
+					{
+						return false;
+					}
+					if( !same(row.getChars(CHECK_NAME, name), 
+							loaded.names[i]) )
+					{
+						loaded.names[i] = row.getString(CHECK_NAME);
+					}
+					i++;
 				}
 			}
 			finally
 			{
 				c.close();
 			}
-			return null;
+			return i == loaded.size && !isCancelled();
 		}
-
-    	/**
-    	 * Called on completion of doInBackground. This takes the list of
-    	 * names and lookup keys and displays a list of contact names which
-    	 * can be clicked to access the contact's page. 
-    	 */
-		protected void onPostExecute(Integer result)
+		
+		/* a missing name is the same as an empty one */
+		private static boolean same( CharSequence text, String name )
 		{
-			/* set the layout to the new contact page */
-			setContentView(R.layout.contact_manager);
-			/* number the names to make it clear the names are in order */
-			ArrayList<String> numbered_names = new ArrayList<String>();
-			/* map from name to key so we can get look up key from a name */
-			final HashMap<String,String> name_to_key = 
-					new HashMap<String,String>();
-			
-			/* update the names to include their number */
-			for( int i = 1; i < this.names.size()+1; i++)
+			if( name == null )
 			{
-				numbered_names.add( i + ". " + this.names.get(i-1) );
+				return text.length() == 0;
 			}
-			
-			/* fill in map from names to keys */
-			for( int i = 0; i < this.keys.size(); i++)
+			if( text.length() != name.length() )
 			{
-				name_to_key.put(numbered_names.get(i), this.keys.get(i));
+				return false;
+			}
+			for( int i = 0; i < name.length(); i++ )
+			{
+				if( text.charAt(i) != name.charAt(i) )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Refreshed
+	 *
+	 * The contacts read by a refresh and a search index over them.
+	 */
+	static class Refreshed
+	{
+		final ContactRows rows = new ContactRows(PAGE_SIZE);
+		final NameIndex index = new NameIndex();
+	}
+	
+	/* only contacts in a visible group */
+	private static final String VISIBLE = 
+			ContactsContract.Contacts.IN_VISIBLE_GROUP + " = '1'";
+	/* sort by id in descending order */
+	private static final String NEWEST_FIRST = 
+			ContactsContract.Contacts._ID + " DESC";
+	
+	/**
+	 * Replace the loading page with the contact list, hook up clicks to 
+	 * open the contact and scrolling to fetch more pages.
+	 */
+	private void showList()
+	{
+		/* set the layout to the new contact page */
+		setContentView(R.layout.contact_manager);
+		adapter = new RecentContactsAdapter();
+		
+		/* get the list view to put contacts in */
+		ListView lv = (ListView) findViewById(R.id.contactList);
+		lv.setAdapter(adapter);
+		
+		/* filter the list as the user types */
+		EditText search = (EditText) findViewById(R.id.search_input);
+		search.addTextChangedListener(new TextWatcher()
+		{
+			@Override
+			public void afterTextChanged(Editable s) 
+			{
+				adapter.setQuery(s);
 			}
-			
-			/* get the list view to put contacts in */
-			ListView lv = (ListView) findViewById(R.id.contactList);
-			
-			/* set the list items to be the numbered names */
-			lv.setAdapter((ListAdapter) new ArrayAdapter<String>(
-					ViewRecentContacts.this,R.layout.list_item, numbered_names));
 
-			/* set the onclick listener for the contact list */
-			lv.setOnItemClickListener(
-					new OnItemClickListener()
-					{
-						/* Launch the contact info on click */
-						@Override
-						public void onItemClick(AdapterView<?> arg0, View arg1,
-								int arg2, long arg3) {
-							/* get the lookup key of the click contact */
-							String key = name_to_key.get(((TextView) arg1).
-									getText());
-							
-							/* use the key to launch contact lookup activity */
-							Intent intent = new Intent(Intent.ACTION_VIEW);
-							Uri uri = Uri.withAppendedPath(
-									ContactsContract.Contacts.
-									CONTENT_LOOKUP_URI, key);
-							intent.setData(uri);
-							startActivity(intent);
-						}
-						
-					});
+			@Override
+			public void beforeTextChanged(CharSequence s, int start, 
+					int count, int after) 
+			{
+			}
 
-		}
+			@Override
+			public void onTextChanged(CharSequence s, int start, 
+					int before, int count) 
+			{
+			}
+		});
+
+		/* set the onclick listener for the contact list */
+		lv.setOnItemClickListener(
+				new OnItemClickListener()
+				{
+					/* Launch the contact info on click */
+					@Override
+					public void onItemClick(AdapterView<?> arg0, View arg1,
+							int arg2, long arg3) {
+						/* use the id and lookup key of the clicked contact 
+						 * to launch contact lookup activity */
+						Intent intent = new Intent(Intent.ACTION_VIEW);
+						Uri uri = ContactsContract.Contacts.getLookupUri(
+								adapter.getContactId(arg2), 
+								adapter.getKey(arg2));
+						intent.setData(uri);
+						startActivity(intent);
+					}
+					
+				});
+		
+		/* fetch the next page as the user nears the bottom. Not while
+		 * searching, the list then holds only the matches so it is always
+		 * near its end and each page would pull in the next */
+		lv.setOnScrollListener(new OnScrollListener()
+		{
+			@Override
+			public void onScroll(AbsListView view, int firstVisibleItem,
+					int visibleItemCount, int totalItemCount) 
+			{
+				if( !adapter.isSearching() && 
+						firstVisibleItem + visibleItemCount + PREFETCH 
+						>= totalItemCount )
+				{
+					loadNextPage();
+				}
+			}
 
+			@Override
+			public void onScrollStateChanged(AbsListView view, 
+					int scrollState) 
+			{
+			}
+		});
+	}
+	
+	/**
+	 * RecentContactsAdapter
+	 *
+	 * List adapter over the pages of contacts loaded so far. Shows each 
+	 * contact's name numbered by how recently it was added.
+	 * 
+	 * Contacts are kept in parallel arrays indexed by list position so a
+	 * click finds its contact directly. Numbers are written in front of 
+	 * the names as rows are shown rather than stored with them.
+	 * 
+	 * While a search is active only the matching contacts are shown. They
+	 * keep the numbers of their place in the full list.
+	 */
+	private class RecentContactsAdapter extends BaseAdapter
+	{
+		/* the contacts shown, one per list row */
+		private ContactRows contacts = new ContactRows(PAGE_SIZE);
+		/* search index over the names of contacts, in the same order */
+		private NameIndex index = new NameIndex();
+		/* the current search or null, and the number of matches */
+		private String query;
+		private int matches;
+		
+		private final LayoutInflater inflater = LayoutInflater.from(
+				ViewRecentContacts.this);
+		
 		/**
-		 * Get a list of all visible contacts in reverse order of being added.
+		 * Add a page of contacts to the end of the list.
+		 */
+		void addPage(ContactRows page)
+		{
+			contacts.append(page);
+			for( int i = 0; i < page.size; i++ )
+			{
+				index.add(page.names[i]);
+			}
+			search();
+			notifyDataSetChanged();
+		}
+		
+		/**
+		 * Replace every row, the list keeps its scroll position.
 		 * 
-		 * The table does not actually store the date a contact was added 
-		 * but it is reasonable to make the assumption that table rows are 
-		 * added at the end of the db so row ids are used to get an ordering
-		 * of contact addition times.
-		 *
-		 * @return - cursor over all visible contacts in order of addition,
-		 * newest first.
+		 * @param names - search index over the new rows.
 		 */
-		private Cursor getContactsCursor()
-		{
-			/* create uri to look up contacts */
-	        Uri uri = ContactsContract.CommonDataKinds.Phone.CONTENT_URI;
-	        /* get important columns */
-	        String[] projection = new String[] {
-	                ContactsContract.Contacts._ID,
-	                ContactsContract.Contacts.DISPLAY_NAME,
-	                ContactsContract.Contacts.LOOKUP_KEY
-	        };
-	        
-	        /* make sure we only get visible contacts */
-	        String selection = ContactsContract.Contacts.IN_VISIBLE_GROUP 
-	        		+ " = '1'";
-	        String[] selectionArgs = null;
-	        /* sort by id in descending order */
-	        String sortOrder = ContactsContract.Contacts._ID +
-	        		" COLLATE LOCALIZED DESC";
-	        
-	        /* return cursor */
-	        return cr.query(uri, projection, selection, selectionArgs, sortOrder);
+		void replace(ContactRows rows, NameIndex names)
+		{
+			contacts = rows;
+			index = names;
+			search();
+			notifyDataSetChanged();
 		}
-
 		
-    }
+		/**
+		 * Show only the contacts matching a search, or all of them if the
+		 * search is empty.
+		 */
+		void setQuery(CharSequence q)
+		{
+			query = q == null || q.toString().trim().length() == 0 ? null 
+					: q.toString();
+			search();
+			notifyDataSetChanged();
+		}
+		
+		/* run the current search again over the current rows */
+		private void search()
+		{
+			if( query != null )
+			{
+				matches = index.search(query);
+			}
+		}
+		
+		boolean isSearching()
+		{
+			return query != null;
+		}
+		
+		/* position of a list row in the full list of contacts */
+		private int at(int position)
+		{
+			return query == null ? position : index.getResults()[position];
+		}
+		
+		ContactRows getRows()
+		{
+			return contacts;
+		}
+		
+		long getContactId(int position)
+		{
+			return contacts.ids[at(position)];
+		}
+		
+		String getKey(int position)
+		{
+			return contacts.keys[at(position)];
+		}
+
+		@Override
+		public int getCount() 
+		{
+			return query == null ? contacts.size : matches;
+		}
+
+		@Override
+		public Object getItem(int position) 
+		{
+			return contacts.names[at(position)];
+		}
+
+		@Override
+		public long getItemId(int position) 
+		{
+			return contacts.ids[at(position)];
+		}
+
+		@Override
+		public View getView(int position, View convertView, ViewGroup parent) 
+		{
+			TextView tv = (TextView) convertView;
+			RowLabel holder;
+			if( tv == null )
+			{
+				tv = (TextView) inflater.inflate(R.layout.list_item, 
+						parent, false);
+				holder = new RowLabel();
+				tv.setTag(holder);
+			}
+			else
+			{
+				holder = (RowLabel) tv.getTag();
+			}
+			
+			/* number the names to make it clear the names are in order */
+			int row = at(position);
+			int len = holder.bind(row + 1, contacts.names[row]);
+			tv.setText(holder.text, 0, len);
+			return tv;
+		}
+	}
 }
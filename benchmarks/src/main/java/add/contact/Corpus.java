@@ -0,0 +1,166 @@
+package add.contact;
+
+import java.util.Random;
+
+/**
+ * Corpus
+ * @author Matt
+ *
+ * Made up but realistic input for the benchmarks: phone numbers written
+ * the many ways people and carriers write them, and names from several
+ * scripts the way they are typed and the way the contacts provider hands
+ * them back. Seeded, so every run measures the same input.
+ */
+final class Corpus
+{
+	private static final String[] FIRST = {
+		"john", "Mary", "ANNE", "jean-luc", "José", "Zoë", "Seán", "ık",
+		"İsmail", "Ayşe", "Şükrü", "Νίκος", "ΟΔΥΣΣΕΑΣ", "Дмитрий",
+		"александр", "Nguyễn", "李", "さくら", "Muhammad", "Ka'iulani",
+		"d'arcy", "o'neil", "Bob", "Li", "Alexandria-Catherine"
+	};
+	private static final String[] LAST = {
+		"smith", "O'BRIEN", "d'angelo", "van der berg", "MacDonald",
+		"Müller", "García Márquez", "Øster", "Yılmaz", "Papadopoulos",
+		"ΠΑΠΑΔΟΠΟΥΛΟΣ", "Иванов", "Lê", "王", "たなか", "Smith-Jones",
+		"al-Hassan", "St. John", "", "Lee"
+	};
+	/* area codes and exchanges to build numbers from */
+	private static final String[] AREA = {
+		"555", "212", "415", "312", "617", "206", "713", "905"
+	};
+
+	private Corpus()
+	{
+	}
+
+	/**
+	 * @return n names as a user might type them: odd case, stray and
+	 * doubled spaces.
+	 */
+	static String[] typedNames(int n)
+	{
+		Random r = new Random(42);
+		String[] names = new String[n];
+		for (int i = 0; i < n; i++) {
+			StringBuilder sb = new StringBuilder();
+			if (r.nextInt(8) == 0) {
+				sb.append(' ');
+			}
+			sb.append(FIRST[r.nextInt(FIRST.length)]);
+			sb.append(r.nextInt(6) == 0 ? "   " : " ");
+			sb.append(LAST[r.nextInt(LAST.length)]);
+			if (r.nextInt(8) == 0) {
+				sb.append("\t");
+			}
+			names[i] = r.nextInt(4) == 0 ? sb.toString().toUpperCase()
+					: sb.toString();
+		}
+		return names;
+	}
+
+	/**
+	 * @return n display names as the contacts provider returns them,
+	 * some missing.
+	 */
+	static String[] displayNames(int n)
+	{
+		Random r = new Random(7);
+		String[] names = new String[n];
+		for (int i = 0; i < n; i++) {
+			if (r.nextInt(50) == 0) {
+				continue;
+			}
+			String last = LAST[r.nextInt(LAST.length)];
+			String first = FIRST[r.nextInt(FIRST.length)];
+			names[i] = last.length() == 0 ? first : first + " " + last;
+		}
+		return names;
+	}
+
+	/**
+	 * @return n phone numbers in a mix of formats, with a few short codes,
+	 * extensions and things which are not numbers at all.
+	 */
+	static String[] numbers(int n)
+	{
+		Random r = new Random(1234);
+		String[] numbers = new String[n];
+		for (int i = 0; i < n; i++) {
+			String area = AREA[r.nextInt(AREA.length)];
+			String ex = digits(r, 3);
+			String line = digits(r, 4);
+			switch (r.nextInt(10)) {
+			case 0:
+				numbers[i] = "+1 (" + area + ") " + ex + "-" + line;
+				break;
+			case 1:
+				numbers[i] = area + "." + ex + "." + line;
+				break;
+			case 2:
+				numbers[i] = "1-" + area + "-" + ex + "-" + line;
+				break;
+			case 3:
+				numbers[i] = "+44 20 " + digits(r, 4) + " " + digits(r, 4);
+				break;
+			case 4:
+				numbers[i] = "0" + digits(r, 4) + " " + digits(r, 6);
+				break;
+			case 5:
+				/* short code */
+				numbers[i] = digits(r, 5);
+				break;
+			case 6:
+				numbers[i] = area + "-" + ex + "-" + line + " x"
+						+ digits(r, 3);
+				break;
+			case 7:
+				/* not a number, a sender name */
+				numbers[i] = "MyCarrier";
+				break;
+			default:
+				numbers[i] = area + ex + line;
+				break;
+			}
+		}
+		return numbers;
+	}
+
+	/**
+	 * @return n search queries as typed into the recent contacts search
+	 * box, from one letter to two words.
+	 */
+	static String[] queries(int n)
+	{
+		Random r = new Random(99);
+		String[] queries = new String[n];
+		for (int i = 0; i < n; i++) {
+			String first = FIRST[r.nextInt(FIRST.length)];
+			String last = LAST[r.nextInt(LAST.length)];
+			switch (r.nextInt(4)) {
+			case 0:
+				queries[i] = first.substring(0, 1);
+				break;
+			case 1:
+				queries[i] = first.substring(0, Math.min(2, first.length()));
+				break;
+			case 2:
+				queries[i] = last.length() > 3 ? last.substring(1, 4) : first;
+				break;
+			default:
+				queries[i] = first + " " + last;
+				break;
+			}
+		}
+		return queries;
+	}
+
+	private static String digits(Random r, int n)
+	{
+		char[] c = new char[n];
+		for (int i = 0; i < n; i++) {
+			c[i] = (char) ('0' + r.nextInt(10));
+		}
+		return new String(c);
+	}
+}
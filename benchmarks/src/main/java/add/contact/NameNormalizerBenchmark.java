@@ -0,0 +1,101 @@
+package add.contact;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * NameNormalizerBenchmark
+ * @author Matt
+ *
+ * Throughput of NameNormalizer over a large corpus of names as users
+ * type them, in several scripts, under an English and a Turkish locale.
+ * Scores are per name. regexSplit is the split and substring version
+ * Util.capitalizeName used before, kept as the baseline; it is fed the
+ * names trimmed since it failed on leading whitespace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameNormalizerBenchmark
+{
+	static final int NAMES = 100000;
+	/* same limit as Util */
+	private static final int MAX_NAME_LENGTH = 100;
+
+	@Param({ "en", "tr" })
+	public String language;
+
+	private String[] names;
+	private String[] trimmed;
+	private NameNormalizer normalizer;
+
+	@Setup
+	public void setUp()
+	{
+		names = Corpus.typedNames(NAMES);
+		trimmed = new String[NAMES];
+		for (int i = 0; i < NAMES; i++) {
+			trimmed[i] = names[i].trim();
+		}
+		normalizer = new NameNormalizer(new Locale(language),
+				MAX_NAME_LENGTH);
+	}
+
+	/* what Util.capitalizeName does for each new contact */
+	@Benchmark
+	@OperationsPerInvocation(NAMES)
+	public void normalize(Blackhole bh)
+	{
+		for (String n : names) {
+			bh.consume(normalizer.normalize(n));
+		}
+	}
+
+	/* the same without making a String, for per row use */
+	@Benchmark
+	@OperationsPerInvocation(NAMES)
+	public void normalizeToBuffer(Blackhole bh)
+	{
+		for (String n : names) {
+			bh.consume(normalizer.normalizeToBuffer(n));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NAMES)
+	public void regexSplit(Blackhole bh)
+	{
+		for (String n : trimmed) {
+			bh.consume(regexSplit(n));
+		}
+	}
+
+	private static String regexSplit(String name)
+	{
+		String[] words = name.split("\\s+");
+		StringBuilder sb = new StringBuilder();
+		for (String word : words) {
+			sb.append(Character.toUpperCase(word.charAt(0)))
+					.append(word.substring(1).toLowerCase());
+			sb.append(" ");
+		}
+		return sb.toString().trim();
+	}
+}
@@ -0,0 +1,77 @@
+package add.contact;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * PhoneNumberBenchmark
+ * @author Matt
+ *
+ * Parsing and keying phone numbers, the work behind every "is this
+ * number a contact" check (Util.numberKey) and the dialpad's number
+ * check which replaced Util.isInteger. Runs over ROWS numbers in mixed
+ * formats, scores are per number.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhoneNumberBenchmark
+{
+	static final int ROWS = 10000;
+
+	private String[] numbers;
+	private final StringBuilder canonical = new StringBuilder(24);
+
+	@Setup
+	public void setUp()
+	{
+		numbers = Corpus.numbers(ROWS);
+	}
+
+	/* the dialpad's check of what was typed */
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void isValid(Blackhole bh)
+	{
+		for (String n : numbers) {
+			bh.consume(PhoneNumber.isValid(n));
+		}
+	}
+
+	/* Util.numberKey, done for every phone row and every text */
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void matchKey(Blackhole bh)
+	{
+		for (String n : numbers) {
+			bh.consume(PhoneNumber.matchKey(PhoneNumber.parse(n)));
+		}
+	}
+
+	/* writing a number back out into a reused buffer */
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void canonicalize(Blackhole bh)
+	{
+		for (String n : numbers) {
+			canonical.setLength(0);
+			PhoneNumber.canonicalize(PhoneNumber.parse(n), canonical);
+			bh.consume(canonical.length());
+		}
+	}
+}
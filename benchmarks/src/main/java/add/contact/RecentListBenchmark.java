@@ -0,0 +1,106 @@
+package add.contact;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * RecentListBenchmark
+ * @author Matt
+ *
+ * The list row path of the recent contacts list, which used to be the
+ * numbered names and name to key map built in LoadContacts.onPostExecute:
+ *
+ * 		bindRows   - the "n. name" label of every row, as getView writes it.
+ * 		keyNumbers - the number key to row map of a list's worth of phone
+ * 		             rows, as PhoneIndex builds it.
+ * 		indexNames - the search index over the names of a list.
+ * 		search     - one query typed into the search box.
+ *
+ * Each runs over lists of 1k and 10k rows. Scores are per list, or per
+ * query for search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecentListBenchmark
+{
+	@Param({ "1000", "10000" })
+	public int rows;
+
+	private String[] names;
+	private String[] numbers;
+	private String[] queries;
+	/* one label per visible row, reused as the list scrolls */
+	private final RowLabel[] labels = new RowLabel[12];
+	private NameIndex index;
+	private int next_query;
+
+	@Setup
+	public void setUp()
+	{
+		names = Corpus.displayNames(rows);
+		numbers = Corpus.numbers(rows);
+		queries = Corpus.queries(256);
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = new RowLabel();
+		}
+		index = new NameIndex();
+		for (String n : names) {
+			index.add(n);
+		}
+	}
+
+	@Benchmark
+	public void bindRows(Blackhole bh)
+	{
+		for (int i = 0; i < names.length; i++) {
+			RowLabel label = labels[i % labels.length];
+			bh.consume(label.bind(i + 1, names[i]));
+		}
+	}
+
+	@Benchmark
+	public LongIntMap keyNumbers()
+	{
+		LongIntMap keys = new LongIntMap(16);
+		for (int i = 0; i < numbers.length; i++) {
+			long key = PhoneNumber.matchKey(PhoneNumber.parse(numbers[i]));
+			if (key >= 0 && !keys.containsKey(key)) {
+				keys.put(key, i);
+			}
+		}
+		return keys;
+	}
+
+	@Benchmark
+	public NameIndex indexNames()
+	{
+		NameIndex built = new NameIndex();
+		for (String n : names) {
+			built.add(n);
+		}
+		return built;
+	}
+
+	@Benchmark
+	public int search()
+	{
+		String q = queries[next_query++ & (queries.length - 1)];
+		return index.search(q);
+	}
+}
@@ -0,0 +1,168 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * GenerateR
+ * @author Matt
+ *
+ * Writes the app's R class from its res directory, the part of the
+ * Android build the Robolectric module needs to compile the app without
+ * the SDK. Ids are made up, Robolectric maps them to the resources by
+ * name, so only the names have to match what aapt would generate.
+ *
+ * Run as a single file program:
+ *
+ * 		java GenerateR.java <res dir> <output dir> <package>
+ */
+public class GenerateR
+{
+	/* files in res/<type>[-qualifiers] which are resources of that type */
+	private static final String[] FILE_TYPES = {
+		"anim", "animator", "color", "drawable", "interpolator", "layout",
+		"menu", "mipmap", "raw", "xml"
+	};
+	private static final Pattern NEW_ID = Pattern.compile("@\\+id/(\\w+)");
+
+	/* names of each type, sorted so the ids are the same every build */
+	private final Map<String, TreeSet<String>> types =
+			new TreeMap<String, TreeSet<String>>();
+
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length != 3) {
+			System.err.println(
+					"usage: GenerateR <res dir> <output dir> <package>");
+			System.exit(2);
+		}
+		GenerateR r = new GenerateR();
+		r.scan(new File(args[0]));
+		r.write(new File(args[1]), args[2]);
+	}
+
+	private void scan(File res) throws Exception
+	{
+		File[] dirs = res.listFiles();
+		if (dirs == null) {
+			throw new IOException("No res directory at " + res);
+		}
+		for (File dir : dirs) {
+			if (!dir.isDirectory()) {
+				continue;
+			}
+			String type = dir.getName();
+			int dash = type.indexOf('-');
+			if (dash > 0) {
+				type = type.substring(0, dash);
+			}
+			for (File f : dir.listFiles()) {
+				if (type.equals("values")) {
+					scanValues(f);
+				} else if (isFileType(type)) {
+					add(type, f.getName().substring(0,
+							f.getName().indexOf('.')));
+					if (f.getName().endsWith(".xml")) {
+						scanIds(f);
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean isFileType(String type)
+	{
+		for (String t : FILE_TYPES) {
+			if (t.equals(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* every @+id/ in a layout or menu declares an id */
+	private void scanIds(File f) throws IOException
+	{
+		String xml = new String(Files.readAllBytes(f.toPath()),
+				StandardCharsets.UTF_8);
+		Matcher m = NEW_ID.matcher(xml);
+		while (m.find()) {
+			add("id", m.group(1));
+		}
+	}
+
+	private void scanValues(File f) throws Exception
+	{
+		Element root = DocumentBuilderFactory.newInstance()
+				.newDocumentBuilder().parse(f).getDocumentElement();
+		for (Node n = root.getFirstChild(); n != null;
+				n = n.getNextSibling()) {
+			if (!(n instanceof Element)) {
+				continue;
+			}
+			Element e = (Element) n;
+			String tag = e.getTagName();
+			String name = e.getAttribute("name").replace('.', '_');
+			if (tag.equals("item")) {
+				add(e.getAttribute("type"), name);
+			} else if (tag.equals("string-array")
+					|| tag.equals("integer-array")) {
+				add("array", name);
+			} else if (tag.equals("declare-styleable")) {
+				throw new IOException("declare-styleable is not supported: "
+						+ name);
+			} else {
+				add(tag, name);
+			}
+		}
+	}
+
+	private void add(String type, String name)
+	{
+		TreeSet<String> names = types.get(type);
+		if (names == null) {
+			names = new TreeSet<String>();
+			types.put(type, names);
+		}
+		names.add(name);
+	}
+
+	private void write(File out, String pkg) throws IOException
+	{
+		File dir = new File(out, pkg.replace('.', File.separatorChar));
+		dir.mkdirs();
+		try (Writer w = Files.newBufferedWriter(
+				new File(dir, "R.java").toPath(), StandardCharsets.UTF_8)) {
+			w.write("/* generated by GenerateR from the app's res directory,"
+					+ " do not edit */\n");
+			w.write("package " + pkg + ";\n\n");
+			w.write("public final class R {\n");
+			/* aapt style ids: package 0x7f, then the type, then the entry */
+			int type_id = 1;
+			for (Map.Entry<String, TreeSet<String>> t : types.entrySet()) {
+				w.write("\tpublic static final class " + t.getKey()
+						+ " {\n");
+				int entry = 0;
+				for (String name : t.getValue()) {
+					w.write(String.format(
+							"\t\tpublic static final int %s = 0x%08x;\n",
+							name, 0x7f000000 | type_id << 16 | entry++));
+				}
+				w.write("\t}\n");
+				type_id++;
+			}
+			w.write("}\n");
+		}
+	}
+}
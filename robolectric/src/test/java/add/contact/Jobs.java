@@ -0,0 +1,66 @@
+package add.contact;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * Jobs
+ * @author Matt
+ *
+ * Runs a list load the way a screen does, through the SharedLoader on
+ * the LIST lane, and waits on the test's UI thread until it is delivered.
+ */
+final class Jobs
+{
+	/* how long to wait between looks at the UI thread's queue */
+	private static final long POLL_NS = 20000;
+
+	private Jobs()
+	{
+	}
+
+	/**
+	 * Result
+	 *
+	 * What a load handed to the UI thread.
+	 */
+	static final class Result<P, R>
+	{
+		final ArrayList<P> items = new ArrayList<P>();
+		R result;
+		boolean done;
+	}
+
+	/**
+	 * Run a job and wait for it to be delivered.
+	 */
+	static <P, R> Result<P, R> run(SharedLoader.Job<P, R> job)
+	{
+		final Result<P, R> r = new Result<P, R>();
+		/* a key of its own, so it never joins a load left running */
+		SharedLoader.getInstance().join("test " + System.identityHashCode(r),
+				Scheduler.PRIORITY_HIGH, job, new SharedLoader.Listener<P, R>() {
+					@Override
+					public void onProgress(P item)
+					{
+						r.items.add(item);
+					}
+
+					@Override
+					public void onLoaded(R result)
+					{
+						r.result = result;
+						r.done = true;
+					}
+				});
+		while (!r.done) {
+			ShadowLooper.idleMainLooper();
+			if (!r.done) {
+				LockSupport.parkNanos(POLL_NS);
+			}
+		}
+		return r;
+	}
+}
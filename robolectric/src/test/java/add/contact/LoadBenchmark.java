@@ -0,0 +1,221 @@
+package add.contact;
+
+import static org.junit.Assume.assumeFalse;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.ParameterizedRobolectricTestRunner.Parameters;
+import org.robolectric.RuntimeEnvironment;
+
+import add.contact.fake.FakePhone;
+import android.content.ContentResolver;
+import android.content.Context;
+
+/**
+ * LoadBenchmark
+ * @author Matt
+ *
+ * How long the list loads and the add path take on a phone with 1k, 10k
+ * and 100k contacts and as many texts, and how much they allocate. Each
+ * one is run a few times to warm up and then timed over several runs;
+ * the median time, the rows it got through per second and the bytes
+ * allocated per run, by every thread, are printed as a table.
+ *
+ * Robolectric's SQLite is not a phone's, so the numbers are for comparing
+ * one build with another and for seeing how a load grows with the phone,
+ * not for what a user would see.
+ *
+ * Only runs with -Pbench, see the pom.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class LoadBenchmark
+{
+	private static final int WARMUP = 3;
+	private static final int RUNS = 10;
+	/* contacts added per run of the add path */
+	private static final int ADD_BATCH = 100;
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private final int size;
+
+	private Context context;
+	private ContentResolver cr;
+	private FakePhone phone;
+
+	public LoadBenchmark(int size)
+	{
+		this.size = size;
+	}
+
+	@Parameters(name = "{0}")
+	public static List<Object[]> sizes()
+	{
+		ArrayList<Object[]> sizes = new ArrayList<Object[]>();
+		for (int size : FakePhone.SIZES) {
+			sizes.add(new Object[] { size });
+		}
+		return sizes;
+	}
+
+	@Before
+	public void setUp()
+	{
+		assumeFalse(Boolean.parseBoolean(System.getProperty("bench.skip",
+				"true")));
+		Singletons.clear();
+		context = RuntimeEnvironment.getApplication();
+		cr = context.getContentResolver();
+		phone = FakePhone.install();
+		phone.addContacts(size);
+		phone.addTexts(size);
+	}
+
+	@After
+	public void tearDown()
+	{
+		if (phone != null) {
+			phone.close();
+		}
+	}
+
+	@Test
+	public void loads()
+	{
+		System.out.println();
+		System.out.println(String.format("%,d contacts and texts", size));
+		System.out.println(String.format("%-28s %10s %12s %12s", "",
+				"median ms", "rows/s", "KB/run"));
+
+		final ContactRows first = Jobs.run(
+				new ViewRecentContacts.LoadContacts(cr, Long.MAX_VALUE))
+				.result;
+		final long from = first.rows[first.size - 1];
+		final long to = first.rows[0];
+
+		report("LoadContacts, first page", new Run() {
+			@Override
+			int run()
+			{
+				return Jobs.run(new ViewRecentContacts.LoadContacts(cr,
+						Long.MAX_VALUE)).result.size;
+			}
+		});
+		report("LoadContacts, next page", new Run() {
+			@Override
+			int run()
+			{
+				return Jobs.run(new ViewRecentContacts.LoadContacts(cr,
+						from)).result.size;
+			}
+		});
+		report("RefreshContacts, unchanged", new Run() {
+			@Override
+			int run()
+			{
+				return Jobs.run(new ViewRecentContacts.RefreshContacts(cr,
+						first, from, to)).result.rows.size;
+			}
+		});
+		report("PhoneIndex, built", new Run() {
+			@Override
+			int run()
+			{
+				/* a new index reads every phone row */
+				Singletons.clear();
+				PhoneIndex.getInstance(context).refresh();
+				return phone.getContactCount();
+			}
+		});
+		report("LoadMessages, all", new Run() {
+			@Override
+			int run()
+			{
+				return Jobs.run(new AddFromText.LoadMessages(context, false,
+						Long.MAX_VALUE, Long.MAX_VALUE)).result.cnt;
+			}
+		});
+		report("LoadMessages, unknown only", new Run() {
+			@Override
+			int run()
+			{
+				return Jobs.run(new AddFromText.LoadMessages(context, true,
+						Long.MAX_VALUE, Long.MAX_VALUE)).result.cnt;
+			}
+		});
+		report("Util.addContacts, " + ADD_BATCH, new Run() {
+			@Override
+			int run()
+			{
+				ArrayList<NewContact> contacts = new ArrayList<NewContact>();
+				for (int i = 0; i < ADD_BATCH; i++) {
+					contacts.add(new NewContact(phone.newNumber(),
+							phone.randomName()));
+				}
+				return Util.addContacts(context, contacts).getAddedCount();
+			}
+		});
+	}
+
+	/**
+	 * Run
+	 *
+	 * One go at what is being measured.
+	 */
+	private abstract static class Run
+	{
+		/**
+		 * @return the rows it got through.
+		 */
+		abstract int run();
+	}
+
+	private static void report(String name, Run run)
+	{
+		for (int i = 0; i < WARMUP; i++) {
+			run.run();
+		}
+		long[] times = new long[RUNS];
+		long rows = 0;
+		long bytes = 0;
+		for (int i = 0; i < RUNS; i++) {
+			long allocated = allocated();
+			long start = System.nanoTime();
+			rows += run.run();
+			times[i] = System.nanoTime() - start;
+			bytes += allocated() - allocated;
+		}
+		Arrays.sort(times);
+		long median = times[RUNS / 2];
+		long total = 0;
+		for (long t : times) {
+			total += t;
+		}
+		System.out.println(String.format("%-28s %10.2f %,12d %,12d", name,
+				median / 1e6, total == 0 ? 0 : rows * 1000000000L / total,
+				bytes / RUNS / 1024));
+	}
+
+	/* bytes allocated so far by the threads alive now, the loader's
+	 * threads live as long as the app so none are missed */
+	private static long allocated()
+	{
+		long[] ids = THREADS.getAllThreadIds();
+		long sum = 0;
+		for (long b : THREADS.getThreadAllocatedBytes(ids)) {
+			if (b > 0) {
+				sum += b;
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,198 @@
+package add.contact;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import add.contact.fake.FakePhone;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.Data;
+
+/**
+ * LoadersTest
+ * @author Matt
+ *
+ * The list loads and the add path against a fake phone with a thousand
+ * contacts and a thousand texts, checked for what they read rather than
+ * how fast, see LoadBenchmark for that.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LoadersTest
+{
+	private static final int CONTACTS = 1000;
+	private static final int TEXTS = 1000;
+	/* rows per page, as in the screens */
+	private static final int PAGE = 50;
+
+	private Context context;
+	private ContentResolver cr;
+	private FakePhone phone;
+
+	@Before
+	public void setUp()
+	{
+		Singletons.clear();
+		context = RuntimeEnvironment.getApplication();
+		cr = context.getContentResolver();
+		phone = FakePhone.install();
+		phone.addContacts(CONTACTS);
+		phone.addTexts(TEXTS);
+	}
+
+	@After
+	public void tearDown()
+	{
+		phone.close();
+	}
+
+	@Test
+	public void loadContactsPagesNewestFirst()
+	{
+		ContactRows first = loadContacts(Long.MAX_VALUE);
+		assertEquals(PAGE, first.size);
+		assertNewestFirst(first);
+		assertEquals(visibleCount("_id >= ?", first.rows[PAGE - 1]), PAGE);
+
+		ContactRows second = loadContacts(first.rows[PAGE - 1]);
+		assertEquals(PAGE, second.size);
+		assertNewestFirst(second);
+		assertTrue(second.rows[0] < first.rows[PAGE - 1]);
+	}
+
+	@Test
+	public void refreshPicksUpAddsAndRenames()
+	{
+		ContactRows loaded = loadContacts(Long.MAX_VALUE);
+		long from = loaded.rows[PAGE - 1];
+		long to = loaded.rows[0];
+
+		ArrayList<NewContact> added = new ArrayList<NewContact>();
+		added.add(new NewContact(phone.newNumber(), "ada lovelace"));
+		added.add(new NewContact(phone.newNumber(), "alan turing"));
+		assertEquals(2, Util.addContacts(context, added).getAddedCount());
+		rename(loaded.ids[10], "Grace Hopper");
+
+		ViewRecentContacts.Refreshed r = Jobs.run(
+				new ViewRecentContacts.RefreshContacts(cr, loaded, from, to))
+				.result;
+		assertEquals(PAGE + 2, r.rows.size);
+		assertNewestFirst(r.rows);
+		assertEquals("Alan Turing", r.rows.names[0]);
+		assertEquals("Ada Lovelace", r.rows.names[1]);
+		assertEquals("Grace Hopper", r.rows.names[12]);
+		assertEquals(PAGE + 2, r.index.size());
+	}
+
+	@Test
+	public void addContactsJoinsTheVisibleGroup()
+	{
+		ArrayList<NewContact> contacts = new ArrayList<NewContact>();
+		/* more than one batch */
+		for (int i = 0; i < 60; i++) {
+			contacts.add(new NewContact(phone.newNumber(),
+					phone.randomName()));
+		}
+		AddResult result = Util.addContacts(context, contacts);
+		assertEquals(60, result.getAddedCount());
+		for (int i = 0; i < 60; i++) {
+			assertEquals(1, visibleCount(Phone.RAW_CONTACT_ID + " = ?",
+					result.getRawContactId(i)));
+		}
+	}
+
+	@Test
+	public void loadMessagesPagesIncomingTexts()
+	{
+		Jobs.Result<?, AddFromText.Page> first = Jobs.run(
+				new AddFromText.LoadMessages(context, false, Long.MAX_VALUE,
+						Long.MAX_VALUE));
+		assertEquals(PAGE, first.result.cnt);
+		assertTrue(first.result.more);
+		assertEquals(PAGE, published(first).size());
+
+		Jobs.Result<?, AddFromText.Page> second = Jobs.run(
+				new AddFromText.LoadMessages(context, false,
+						first.result.last_date, first.result.last_id));
+		assertEquals(PAGE, second.result.cnt);
+		assertTrue(second.result.last_date < first.result.last_date);
+	}
+
+	@Test
+	public void unknownSendersLeavesOutContacts() throws Exception
+	{
+		Jobs.Result<?, AddFromText.Page> page = Jobs.run(
+				new AddFromText.LoadMessages(context, true, Long.MAX_VALUE,
+						Long.MAX_VALUE));
+		ArrayList<Object> texts = published(page);
+		assertTrue(page.result.cnt > 0);
+		assertEquals(page.result.cnt, texts.size());
+		PhoneIndex index = PhoneIndex.getInstance(context);
+		for (Object text : texts) {
+			Method number = text.getClass().getDeclaredMethod("getNumber");
+			number.setAccessible(true);
+			assertFalse(index.contains((String) number.invoke(text)));
+		}
+	}
+
+	private ContactRows loadContacts(long before_id)
+	{
+		return Jobs.run(new ViewRecentContacts.LoadContacts(cr, before_id))
+				.result;
+	}
+
+	private static void assertNewestFirst(ContactRows rows)
+	{
+		for (int i = 1; i < rows.size; i++) {
+			assertTrue(rows.rows[i] < rows.rows[i - 1]);
+		}
+	}
+
+	/* visible phone rows matching a selection on one value */
+	private int visibleCount(String selection, long value)
+	{
+		Cursor c = cr.query(Phone.CONTENT_URI, new String[] { Phone._ID },
+				"in_visible_group = 1 AND " + selection,
+				new String[] { Long.toString(value) }, null);
+		try {
+			return c.getCount();
+		} finally {
+			c.close();
+		}
+	}
+
+	private void rename(long contact_id, String name)
+	{
+		ContentValues v = new ContentValues();
+		v.put(StructuredName.DISPLAY_NAME, name);
+		assertEquals(1, cr.update(Data.CONTENT_URI, v, Data.RAW_CONTACT_ID
+				+ " = ? AND " + Data.MIMETYPE + " = ?", new String[] {
+				Long.toString(contact_id), StructuredName.CONTENT_ITEM_TYPE }));
+	}
+
+	/* the texts a load handed over, in batches of arrays */
+	private static ArrayList<Object> published(Jobs.Result<?, ?> r)
+	{
+		ArrayList<Object> all = new ArrayList<Object>();
+		for (Object batch : r.items) {
+			for (Object text : (Object[]) batch) {
+				all.add(text);
+			}
+		}
+		return all;
+	}
+}
@@ -0,0 +1,117 @@
+package add.contact;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.shadows.ShadowLooper;
+
+import add.contact.fake.FakePhone;
+import android.app.Activity;
+
+/**
+ * MainThreadIoTest
+ * @author Matt
+ *
+ * Every screen, opened on a fake phone and left again, keeps to its
+ * budget of UI thread I/O. Under Robolectric the app runs MainThreadIo in
+ * fatal mode, so a visit over budget fails as the screen is paused; the
+ * budget is checked here as well so the failure names the screen.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MainThreadIoTest
+{
+	/* how long a screen is given to finish loading */
+	private static final long SETTLE_MS = 500;
+
+	private FakePhone phone;
+
+	@Before
+	public void setUp()
+	{
+		Singletons.clear();
+		phone = FakePhone.install();
+		phone.addContacts(1000);
+		phone.addTexts(1000);
+	}
+
+	@After
+	public void tearDown()
+	{
+		phone.close();
+	}
+
+	@Test
+	public void menu()
+	{
+		visit(AddContactMenu.class);
+	}
+
+	@Test
+	public void addFromDialpad()
+	{
+		visit(AddFromDialpad.class);
+		/* its saved inputs are read from preferences in onResume, which
+		 * StrictMode catches and we charge */
+		assertTrue(MainThreadIo.getWorstVisit(AddFromDialpad.class) > 0);
+	}
+
+	@Test
+	public void addFromText()
+	{
+		visit(AddFromText.class);
+	}
+
+	@Test
+	public void viewRecentContacts()
+	{
+		visit(ViewRecentContacts.class);
+		/* the second time round the list is read from the snapshot */
+		visit(ViewRecentContacts.class);
+	}
+
+	@Test
+	public void setName()
+	{
+		visit(SetName.class);
+	}
+
+	@Test
+	public void howToUse()
+	{
+		visit(HowToUse.class);
+	}
+
+	@Test
+	public void debugMetrics()
+	{
+		visit(DebugMetrics.class);
+	}
+
+	/* open a screen, let its loads finish, and leave it */
+	private static void visit(Class<? extends Activity> screen)
+	{
+		ActivityController<? extends Activity> c =
+				Robolectric.buildActivity(screen).setup();
+		long until = System.nanoTime() + SETTLE_MS * 1000000;
+		while (System.nanoTime() < until) {
+			ShadowLooper.idleMainLooper();
+			LockSupport.parkNanos(1000000);
+		}
+		c.pause().stop().destroy();
+
+		long worst = MainThreadIo.getWorstVisit(screen);
+		long budget = MainThreadIo.getBudget(screen);
+		assertTrue(screen.getSimpleName() + " was never left", worst >= 0);
+		assertTrue(String.format("%s did %.1f ms of UI thread I/O of %d\n%s",
+				screen.getSimpleName(), worst / 1e6, budget / 1000000,
+				MainThreadIo.report()), worst <= budget);
+	}
+}
@@ -0,0 +1,37 @@
+package add.contact;
+
+import java.lang.reflect.Field;
+
+/**
+ * Singletons
+ * @author Matt
+ *
+ * Robolectric gives every test a new application but keeps the app's
+ * classes loaded, so the shared instances would outlive the test which
+ * made them and hold on to its content resolver. Tests clear them first.
+ * The Scheduler is left alone, it does not hold on to anything.
+ */
+final class Singletons
+{
+	private static final Class<?>[] SHARED = {
+		AccountCache.class, ContactWriter.class, OwnerName.class,
+		PhoneIndex.class, SharedLoader.class, SmsOutbox.class
+	};
+
+	private Singletons()
+	{
+	}
+
+	static void clear()
+	{
+		try {
+			for (Class<?> c : SHARED) {
+				Field f = c.getDeclaredField("instance");
+				f.setAccessible(true);
+				f.set(null, null);
+			}
+		} catch (ReflectiveOperationException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,390 @@
+package add.contact.fake;
+
+import java.util.ArrayList;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.Groups;
+import android.provider.ContactsContract.RawContacts;
+import android.telephony.PhoneNumberUtils;
+
+/**
+ * FakeContactsProvider
+ * @author Matt
+ *
+ * The contacts provider, cut down to what the app reads and writes and
+ * backed by an in memory SQLite database: raw contacts, their data rows,
+ * groups and the owner's profile, with the Data, Phone and PhoneLookup
+ * views over them. Every raw contact is a contact of its own, there is no
+ * joining, so contact ids and raw contact ids are the same.
+ *
+ * As in the real provider a contact is in a visible group once one of its
+ * group memberships points at a visible group, phone lookups match on the
+ * last seven digits of the number, a "limit" query parameter caps the
+ * rows returned and a batch is one transaction with one change
+ * notification at the end.
+ *
+ * Generators fill the tables straight through getDatabase(), the app goes
+ * through the content resolver like it would on a phone.
+ */
+public class FakeContactsProvider extends ContentProvider
+{
+	private static final int RAW_CONTACTS = 1;
+	private static final int DATA = 2;
+	private static final int PHONES = 3;
+	private static final int PHONE_LOOKUP = 4;
+	private static final int GROUPS = 5;
+	private static final int PROFILE = 6;
+
+	private static final UriMatcher URIS = new UriMatcher(UriMatcher.NO_MATCH);
+	static {
+		String a = ContactsContract.AUTHORITY;
+		URIS.addURI(a, "raw_contacts", RAW_CONTACTS);
+		URIS.addURI(a, "data", DATA);
+		URIS.addURI(a, "data/phones", PHONES);
+		URIS.addURI(a, "phone_lookup/*", PHONE_LOOKUP);
+		URIS.addURI(a, "groups", GROUPS);
+		URIS.addURI(a, "profile", PROFILE);
+	}
+
+	/* data rows with their raw contact, the Data view */
+	private static final String DATA_VIEW =
+			"SELECT d._id AS _id, d.raw_contact_id AS raw_contact_id, "
+			+ "d.raw_contact_id AS contact_id, d.mimetype AS mimetype, "
+			+ "d.data1 AS data1, d.data2 AS data2, "
+			+ "d.data_version AS data_version, d.min_match AS min_match, "
+			+ "r.display_name AS display_name, "
+			+ "'lookup-' || r._id AS lookup, "
+			+ "r.in_visible_group AS in_visible_group, "
+			+ "r.account_name AS account_name, "
+			+ "r.account_type AS account_type "
+			+ "FROM data d JOIN raw_contacts r ON r._id = d.raw_contact_id "
+			+ "WHERE r.deleted = 0";
+
+	private static final String[] SCHEMA = {
+		"CREATE TABLE groups (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+				+ "sourceid TEXT, account_name TEXT, account_type TEXT, "
+				+ "title TEXT, group_visible INTEGER NOT NULL DEFAULT 0, "
+				+ "deleted INTEGER NOT NULL DEFAULT 0)",
+		"CREATE TABLE raw_contacts (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+				+ "account_name TEXT, account_type TEXT, display_name TEXT, "
+				+ "in_visible_group INTEGER NOT NULL DEFAULT 0, "
+				+ "deleted INTEGER NOT NULL DEFAULT 0, "
+				+ "version INTEGER NOT NULL DEFAULT 1)",
+		"CREATE TABLE data (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+				+ "raw_contact_id INTEGER NOT NULL, mimetype TEXT NOT NULL, "
+				+ "data1 TEXT, data2 TEXT, "
+				+ "data_version INTEGER NOT NULL DEFAULT 0, min_match TEXT)",
+		"CREATE INDEX data_raw_contact_id ON data (raw_contact_id)",
+		"CREATE INDEX data_min_match ON data (min_match)",
+		"CREATE VIEW view_data AS " + DATA_VIEW,
+		"CREATE VIEW view_phones AS SELECT _id, raw_contact_id, contact_id, "
+				+ "data1, data2, data_version, min_match, "
+				+ "display_name, lookup, in_visible_group FROM view_data "
+				+ "WHERE mimetype = '" + Phone.CONTENT_ITEM_TYPE + "'",
+		"CREATE TABLE profile (display_name TEXT)",
+	};
+
+	private SQLiteOpenHelper helper;
+	/* true while a batch is applied, changes are told once at its end */
+	private boolean in_batch;
+
+	@Override
+	public boolean onCreate()
+	{
+		/* no name, the database lives in memory for one test */
+		helper = new SQLiteOpenHelper(getContext(), null, null, 1) {
+			@Override
+			public void onCreate(SQLiteDatabase db)
+			{
+				for (String sql : SCHEMA) {
+					db.execSQL(sql);
+				}
+			}
+
+			@Override
+			public void onUpgrade(SQLiteDatabase db, int from, int to)
+			{
+			}
+		};
+		return true;
+	}
+
+	/**
+	 * @return the database behind the provider, for generators to fill.
+	 * Nobody is told about changes made through it, see notifyChanged().
+	 */
+	public SQLiteDatabase getDatabase()
+	{
+		return helper.getWritableDatabase();
+	}
+
+	/**
+	 * Close the database, the test is done with it.
+	 */
+	@Override
+	public void shutdown()
+	{
+		helper.close();
+	}
+
+	/**
+	 * Tell observers of the contacts that they changed.
+	 */
+	public void notifyChanged()
+	{
+		getContext().getContentResolver().notifyChange(
+				ContactsContract.AUTHORITY_URI, null);
+	}
+
+	/**
+	 * Set the name on the owner's profile, null for no profile.
+	 */
+	public void setOwnerName(String name)
+	{
+		SQLiteDatabase db = getDatabase();
+		db.delete("profile", null, null);
+		if (name != null) {
+			ContentValues v = new ContentValues();
+			v.put("display_name", name);
+			db.insert("profile", null, v);
+		}
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection,
+			String[] args, String sort)
+	{
+		SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+		switch (URIS.match(uri)) {
+		case RAW_CONTACTS:
+			qb.setTables("raw_contacts");
+			qb.appendWhere("deleted = 0");
+			break;
+		case DATA:
+			qb.setTables("view_data");
+			break;
+		case PHONES:
+			qb.setTables("view_phones");
+			break;
+		case PHONE_LOOKUP:
+			/* one row per matching number, keyed by the contact */
+			qb.setTables("(SELECT contact_id AS _id, display_name, lookup, "
+					+ "data1 AS number, data2 AS type, min_match, "
+					+ "in_visible_group "
+					+ "FROM view_phones)");
+			qb.appendWhere("min_match = ");
+			qb.appendWhereEscapeString(PhoneNumberUtils.toCallerIDMinMatch(
+					uri.getLastPathSegment()));
+			break;
+		case GROUPS:
+			qb.setTables("groups");
+			break;
+		case PROFILE:
+			qb.setTables("profile");
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown uri " + uri);
+		}
+		return qb.query(getDatabase(), projection, selection, args, null,
+				null, sort, uri.getQueryParameter("limit"));
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues values)
+	{
+		SQLiteDatabase db = getDatabase();
+		Uri inserted;
+		switch (URIS.match(uri)) {
+		case RAW_CONTACTS:
+			inserted = ContentUris.withAppendedId(RawContacts.CONTENT_URI,
+					db.insertOrThrow("raw_contacts", null, values));
+			break;
+		case DATA:
+			inserted = ContentUris.withAppendedId(Data.CONTENT_URI,
+					insertData(db, new ContentValues(values)));
+			break;
+		case GROUPS:
+			inserted = ContentUris.withAppendedId(Groups.CONTENT_URI,
+					db.insertOrThrow("groups", null, values));
+			break;
+		default:
+			throw new IllegalArgumentException("Can not insert into " + uri);
+		}
+		changed();
+		return inserted;
+	}
+
+	/* a data row, keeping the raw contact's name and visibility in step */
+	private long insertData(SQLiteDatabase db, ContentValues values)
+	{
+		Long raw_id = values.getAsLong(Data.RAW_CONTACT_ID);
+		String mimetype = values.getAsString(Data.MIMETYPE);
+		if (raw_id == null || mimetype == null) {
+			throw new IllegalArgumentException(
+					"A data row needs a raw contact and a mimetype");
+		}
+		String[] raw = { raw_id.toString() };
+		if (mimetype.equals(Phone.CONTENT_ITEM_TYPE)) {
+			values.put("min_match", PhoneNumberUtils.toCallerIDMinMatch(
+					values.getAsString(Phone.NUMBER)));
+		} else if (mimetype.equals(StructuredName.CONTENT_ITEM_TYPE)) {
+			ContentValues name = new ContentValues();
+			name.put("display_name",
+					values.getAsString(StructuredName.DISPLAY_NAME));
+			db.update("raw_contacts", name, "_id = ?", raw);
+		} else if (mimetype.equals(GroupMembership.CONTENT_ITEM_TYPE)) {
+			/* the provider finds the group by its source id in the raw
+			 * contact's account */
+			String source_id = values.getAsString(
+					GroupMembership.GROUP_SOURCE_ID);
+			values.remove(GroupMembership.GROUP_SOURCE_ID);
+			if (source_id != null) {
+				values.put(GroupMembership.GROUP_ROW_ID,
+						findGroup(db, source_id, raw_id));
+			}
+			db.execSQL("UPDATE raw_contacts SET in_visible_group = 1 "
+					+ "WHERE _id = ? AND EXISTS (SELECT 1 FROM groups "
+					+ "WHERE _id = ? AND group_visible = 1 AND deleted = 0)",
+					new Object[] { raw_id,
+							values.getAsLong(GroupMembership.GROUP_ROW_ID) });
+		}
+		return db.insertOrThrow("data", null, values);
+	}
+
+	private static long findGroup(SQLiteDatabase db, String source_id,
+			long raw_id)
+	{
+		Cursor c = db.rawQuery("SELECT g._id FROM groups g JOIN raw_contacts r "
+				+ "ON r.account_name = g.account_name "
+				+ "AND r.account_type = g.account_type "
+				+ "WHERE g.sourceid = ? AND r._id = ?",
+				new String[] { source_id, Long.toString(raw_id) });
+		try {
+			if (!c.moveToFirst()) {
+				throw new IllegalArgumentException("No group " + source_id
+						+ " in the account of raw contact " + raw_id);
+			}
+			return c.getLong(0);
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Raw contacts are marked deleted and drop out of every view, like a
+	 * delete by an app rather than a sync adapter.
+	 */
+	@Override
+	public int delete(Uri uri, String selection, String[] args)
+	{
+		if (URIS.match(uri) != RAW_CONTACTS) {
+			throw new IllegalArgumentException("Can not delete from " + uri);
+		}
+		ContentValues deleted = new ContentValues();
+		deleted.put("deleted", 1);
+		int cnt = getDatabase().update("raw_contacts", deleted,
+				appendWhere(selection, "deleted = 0"), args);
+		if (cnt > 0) {
+			changed();
+		}
+		return cnt;
+	}
+
+	/**
+	 * Data rows can be edited, each edit bumps the row's data version and
+	 * renaming a contact changes its display name.
+	 */
+	@Override
+	public int update(Uri uri, ContentValues values, String selection,
+			String[] args)
+	{
+		if (URIS.match(uri) != DATA) {
+			throw new IllegalArgumentException("Can not update " + uri);
+		}
+		SQLiteDatabase db = getDatabase();
+		db.beginTransaction();
+		try {
+			Cursor c = db.query("view_data",
+					new String[] { Data._ID, Data.RAW_CONTACT_ID }, selection,
+					args, null, null, null);
+			int cnt = 0;
+			try {
+				while (c.moveToNext()) {
+					String[] id = { c.getString(0) };
+					db.update("data", values, "_id = ?", id);
+					db.execSQL("UPDATE data SET data_version = "
+							+ "data_version + 1 WHERE _id = ?", id);
+					db.execSQL("UPDATE raw_contacts SET display_name = "
+							+ "(SELECT data1 FROM data WHERE raw_contact_id = ? "
+							+ "AND mimetype = ?) WHERE _id = ?", new Object[] {
+							c.getLong(1), StructuredName.CONTENT_ITEM_TYPE,
+							c.getLong(1) });
+					cnt++;
+				}
+			} finally {
+				c.close();
+			}
+			db.setTransactionSuccessful();
+			if (cnt > 0) {
+				changed();
+			}
+			return cnt;
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	@Override
+	public ContentProviderResult[] applyBatch(
+			ArrayList<ContentProviderOperation> ops)
+			throws OperationApplicationException
+	{
+		SQLiteDatabase db = getDatabase();
+		db.beginTransaction();
+		in_batch = true;
+		try {
+			ContentProviderResult[] results = super.applyBatch(ops);
+			db.setTransactionSuccessful();
+			return results;
+		} finally {
+			in_batch = false;
+			db.endTransaction();
+			notifyChanged();
+		}
+	}
+
+	@Override
+	public String getType(Uri uri)
+	{
+		return null;
+	}
+
+	private void changed()
+	{
+		if (!in_batch) {
+			notifyChanged();
+		}
+	}
+
+	private static String appendWhere(String selection, String clause)
+	{
+		return selection == null ? clause
+				: "(" + selection + ") AND " + clause;
+	}
+}
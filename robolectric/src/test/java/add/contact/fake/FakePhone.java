@@ -0,0 +1,363 @@
+package add.contact.fake;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.telephony.PhoneNumberUtils;
+
+/**
+ * FakePhone
+ * @author Matt
+ *
+ * A phone for the app to run on: the fake contacts and texts providers
+ * registered with Robolectric, and generators which fill them with made
+ * up contacts and texts. The same seed gives the same phone.
+ *
+ * The phone has one account with a visible "My Contacts" group, which
+ * new contacts are added to, and a hidden one. One in twenty generated
+ * contacts is only in the hidden group so it is left out of the lists.
+ * Texts are spread over conversations, most with one other person and
+ * some group chats; about half the people texting are contacts. A text's
+ * body is the sender's name, as Add from Text expects.
+ */
+public final class FakePhone
+{
+	/* contact and text counts the benchmarks run at */
+	public static final int[] SIZES = { 1000, 10000, 100000 };
+
+	public static final String ACCOUNT_NAME = "owner@example.com";
+	public static final String ACCOUNT_TYPE = "com.google";
+	/* source id of the visible group, what AccountCache should pick */
+	public static final String GROUP_ID = "6";
+	private static final String HIDDEN_GROUP_ID = "starred";
+
+	/* texts sent and received, as in Telephony.Sms */
+	private static final int INBOX = 1;
+	private static final int SENT = 2;
+	/* texts per conversation, on average */
+	private static final int TEXTS_PER_CONVERSATION = 10;
+	/* a text every few minutes, from here on */
+	private static final long FIRST_TEXT = 1262304000000L;
+	private static final long TEXT_GAP_MS = 180000;
+
+	private static final String[] FIRST = {
+		"James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael",
+		"Linda", "William", "Elizabeth", "David", "Barbara", "Richard", "Susan",
+		"Joseph", "Jessica", "Thomas", "Sarah", "Charles", "Karen", "Chris",
+		"Nancy", "Daniel", "Lisa", "Matthew", "Betty", "Anthony", "Margaret",
+		"Mark", "Sandra", "Jean-Luc", "Siobhan", "Mehmet", "Ayşe", "Zoë",
+		"José", "Nikolaos", "Ngozi", "Priya", "Wei",
+	};
+	private static final String[] LAST = {
+		"Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller",
+		"Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez",
+		"Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin",
+		"O'Brien", "D'Angelo", "McDonald", "van der Berg", "Smith-Jones",
+		"Yılmaz", "Papadopoulos", "Okafor", "Patel", "Chen",
+	};
+
+	private final FakeContactsProvider contacts;
+	private final FakeTextsProvider texts;
+	private final Random random;
+	/* numbers and names of the contacts made so far */
+	private final ArrayList<String> numbers = new ArrayList<String>();
+	private final ArrayList<String> names = new ArrayList<String>();
+	/* row ids of the visible and hidden groups */
+	private long group;
+	private long hidden_group;
+	/* the next made up number, every one is different */
+	private long next_number = 2015550100L;
+	/* the next text's date */
+	private long next_date = FIRST_TEXT;
+
+	private FakePhone(FakeContactsProvider contacts, FakeTextsProvider texts,
+			long seed)
+	{
+		this.contacts = contacts;
+		this.texts = texts;
+		this.random = new Random(seed);
+		addAccount();
+	}
+
+	/**
+	 * Register a fresh set of providers for the test, with an account and
+	 * no contacts or texts yet.
+	 */
+	public static FakePhone install()
+	{
+		return install(1);
+	}
+
+	public static FakePhone install(long seed)
+	{
+		FakeContactsProvider contacts = Robolectric.setupContentProvider(
+				FakeContactsProvider.class, ContactsContract.AUTHORITY);
+		FakeTextsProvider texts = Robolectric.setupContentProvider(
+				FakeTextsProvider.class, FakeTextsProvider.SMS);
+		ShadowContentResolver.registerProviderInternal(
+				FakeTextsProvider.MMS_SMS, texts);
+		return new FakePhone(contacts, texts, seed);
+	}
+
+	/**
+	 * Shut both providers down, at the end of the test.
+	 */
+	public void close()
+	{
+		contacts.shutdown();
+		texts.shutdown();
+	}
+
+	public FakeContactsProvider getContacts()
+	{
+		return contacts;
+	}
+
+	public FakeTextsProvider getTexts()
+	{
+		return texts;
+	}
+
+	/**
+	 * @return the number of the i'th contact made, as it was saved.
+	 */
+	public String getNumber(int i)
+	{
+		return numbers.get(i);
+	}
+
+	/**
+	 * @return the name of the i'th contact made.
+	 */
+	public String getName(int i)
+	{
+		return names.get(i);
+	}
+
+	/**
+	 * @return how many contacts have been made.
+	 */
+	public int getContactCount()
+	{
+		return numbers.size();
+	}
+
+	private void addAccount()
+	{
+		SQLiteDatabase db = contacts.getDatabase();
+		SQLiteStatement insert = db.compileStatement("INSERT INTO groups "
+				+ "(sourceid, account_name, account_type, title, group_visible)"
+				+ " VALUES (?, ?, ?, ?, ?)");
+		group = insertGroup(insert, GROUP_ID, "My Contacts", true);
+		hidden_group = insertGroup(insert, HIDDEN_GROUP_ID, "Starred", false);
+		insert.close();
+	}
+
+	private static long insertGroup(SQLiteStatement insert, String source_id,
+			String title, boolean visible)
+	{
+		insert.bindString(1, source_id);
+		insert.bindString(2, ACCOUNT_NAME);
+		insert.bindString(3, ACCOUNT_TYPE);
+		insert.bindString(4, title);
+		insert.bindLong(5, visible ? 1 : 0);
+		return insert.executeInsert();
+	}
+
+	/**
+	 * Add contacts with a name and a mobile number each, in one
+	 * transaction, then tell the contacts' observers.
+	 */
+	public void addContacts(int cnt)
+	{
+		SQLiteDatabase db = contacts.getDatabase();
+		SQLiteStatement raw = db.compileStatement("INSERT INTO raw_contacts "
+				+ "(account_name, account_type, display_name, in_visible_group)"
+				+ " VALUES (?, ?, ?, ?)");
+		SQLiteStatement data = db.compileStatement("INSERT INTO data "
+				+ "(raw_contact_id, mimetype, data1, data2, min_match) "
+				+ "VALUES (?, ?, ?, ?, ?)");
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < cnt; i++) {
+				String name = name();
+				String number = formatNumber(next_number++);
+				boolean visible = random.nextInt(20) != 0;
+
+				raw.bindString(1, ACCOUNT_NAME);
+				raw.bindString(2, ACCOUNT_TYPE);
+				raw.bindString(3, name);
+				raw.bindLong(4, visible ? 1 : 0);
+				long id = raw.executeInsert();
+
+				insertData(data, id, StructuredName.CONTENT_ITEM_TYPE, name,
+						null, null);
+				insertData(data, id, Phone.CONTENT_ITEM_TYPE, number,
+						Integer.toString(Phone.TYPE_MOBILE),
+						PhoneNumberUtils.toCallerIDMinMatch(number));
+				insertData(data, id, GroupMembership.CONTENT_ITEM_TYPE,
+						Long.toString(visible ? group : hidden_group), null,
+						null);
+				numbers.add(number);
+				names.add(name);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			raw.close();
+			data.close();
+		}
+		contacts.notifyChanged();
+	}
+
+	private static void insertData(SQLiteStatement data, long raw_id,
+			String mimetype, String data1, String data2, String min_match)
+	{
+		data.clearBindings();
+		data.bindLong(1, raw_id);
+		data.bindString(2, mimetype);
+		data.bindString(3, data1);
+		if (data2 != null) {
+			data.bindString(4, data2);
+		}
+		if (min_match != null) {
+			data.bindString(5, min_match);
+		}
+		data.executeInsert();
+	}
+
+	/**
+	 * Add texts, spread over cnt / TEXTS_PER_CONVERSATION conversations
+	 * and newer than any added before. Each conversation is with a
+	 * contact half of the time, if there are any, and one in ten is a
+	 * group chat.
+	 */
+	public void addTexts(int cnt)
+	{
+		int conversations = Math.max(1, cnt / TEXTS_PER_CONVERSATION);
+		SQLiteDatabase db = texts.getDatabase();
+		SQLiteStatement address = db.compileStatement(
+				"INSERT INTO canonical_addresses (address) VALUES (?)");
+		SQLiteStatement thread = db.compileStatement("INSERT INTO threads "
+				+ "(recipient_ids) VALUES (?)");
+		SQLiteStatement sms = db.compileStatement("INSERT INTO sms "
+				+ "(thread_id, address, date, type, body) "
+				+ "VALUES (?, ?, ?, ?, ?)");
+		SQLiteStatement latest = db.compileStatement("UPDATE threads SET "
+				+ "date = ?, snippet = ?, message_count = message_count + 1 "
+				+ "WHERE _id = ?");
+		db.beginTransaction();
+		try {
+			long[] thread_ids = new long[conversations];
+			String[] senders = new String[conversations];
+			String[] sender_names = new String[conversations];
+			for (int i = 0; i < conversations; i++) {
+				boolean known = !numbers.isEmpty() && random.nextBoolean();
+				int contact = known ? random.nextInt(numbers.size()) : -1;
+				senders[i] = known ? numbers.get(contact)
+						: formatNumber(next_number++);
+				sender_names[i] = known ? names.get(contact) : name();
+
+				address.bindString(1, senders[i]);
+				String recipients = Long.toString(address.executeInsert());
+				if (random.nextInt(10) == 0) {
+					address.bindString(1, formatNumber(next_number++));
+					recipients += " " + address.executeInsert();
+				}
+				thread.bindString(1, recipients);
+				thread_ids[i] = thread.executeInsert();
+			}
+
+			for (int i = 0; i < cnt; i++) {
+				int t = random.nextInt(conversations);
+				boolean received = random.nextInt(10) < 7;
+				String body = received ? typed(sender_names[t])
+						: "Hi, it's " + name();
+				long date = next_date;
+				next_date += 1 + random.nextInt((int) TEXT_GAP_MS);
+
+				sms.bindLong(1, thread_ids[t]);
+				sms.bindString(2, senders[t]);
+				sms.bindLong(3, date);
+				sms.bindLong(4, received ? INBOX : SENT);
+				sms.bindString(5, body);
+				sms.executeInsert();
+
+				latest.bindLong(1, date);
+				latest.bindString(2, body);
+				latest.bindLong(3, thread_ids[t]);
+				latest.executeUpdateDelete();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			address.close();
+			thread.close();
+			sms.close();
+			latest.close();
+		}
+	}
+
+	/**
+	 * @return a made up name, typed the way people type them.
+	 */
+	public String randomName()
+	{
+		return typed(name());
+	}
+
+	private String name()
+	{
+		return FIRST[random.nextInt(FIRST.length)] + " "
+				+ LAST[random.nextInt(LAST.length)];
+	}
+
+	/* the name as it might be typed in a text */
+	private String typed(String name)
+	{
+		switch (random.nextInt(4)) {
+		case 0:
+			return name.toLowerCase();
+		case 1:
+			return "  " + name + " ";
+		default:
+			return name;
+		}
+	}
+
+	/**
+	 * @return a number never handed out before, in one of the ways
+	 * numbers are written.
+	 */
+	public String newNumber()
+	{
+		return formatNumber(next_number++);
+	}
+
+	private String formatNumber(long n)
+	{
+		String digits = Long.toString(n);
+		String area = digits.substring(0, 3);
+		String exchange = digits.substring(3, 6);
+		String line = digits.substring(6);
+		switch (random.nextInt(4)) {
+		case 0:
+			return "(" + area + ") " + exchange + "-" + line;
+		case 1:
+			return "+1 " + area + "-" + exchange + "-" + line;
+		case 2:
+			return "1" + digits;
+		default:
+			return digits;
+		}
+	}
+}
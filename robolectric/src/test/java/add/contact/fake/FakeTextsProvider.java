@@ -0,0 +1,153 @@
+package add.contact.fake;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+/**
+ * FakeTextsProvider
+ * @author Matt
+ *
+ * The SMS and MMS-SMS providers in one, backed by an in memory SQLite
+ * database with the same tables the phone keeps texts in: the messages
+ * under content://sms, and the conversations and the addresses of their
+ * recipients under content://mms-sms. Register it under both authorities.
+ *
+ * Like the real provider it takes a "LIMIT n" tacked onto the sort order,
+ * and it has only the indexes the phone has, so a query which is slow on a
+ * phone full of texts is slow here too.
+ *
+ * Generators fill the tables straight through getDatabase().
+ */
+public class FakeTextsProvider extends ContentProvider
+{
+	public static final String SMS = "sms";
+	public static final String MMS_SMS = "mms-sms";
+
+	private static final int MESSAGES = 1;
+	private static final int MESSAGE = 2;
+	private static final int CONVERSATIONS = 3;
+	private static final int ADDRESSES = 4;
+
+	private static final UriMatcher URIS = new UriMatcher(UriMatcher.NO_MATCH);
+	static {
+		URIS.addURI(SMS, null, MESSAGES);
+		URIS.addURI(SMS, "#", MESSAGE);
+		URIS.addURI(MMS_SMS, "conversations", CONVERSATIONS);
+		URIS.addURI(MMS_SMS, "canonical-addresses", ADDRESSES);
+	}
+
+	private static final String[] SCHEMA = {
+		"CREATE TABLE sms (_id INTEGER PRIMARY KEY, thread_id INTEGER, "
+				+ "address TEXT, date INTEGER, read INTEGER DEFAULT 0, "
+				+ "type INTEGER, body TEXT)",
+		"CREATE INDEX typeThreadIdIndex ON sms (type, thread_id)",
+		"CREATE TABLE threads (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+				+ "date INTEGER DEFAULT 0, message_count INTEGER DEFAULT 0, "
+				+ "recipient_ids TEXT, snippet TEXT, read INTEGER DEFAULT 1)",
+		"CREATE TABLE canonical_addresses (_id INTEGER PRIMARY KEY "
+				+ "AUTOINCREMENT, address TEXT)",
+	};
+
+	private SQLiteOpenHelper helper;
+
+	@Override
+	public boolean onCreate()
+	{
+		/* no name, the database lives in memory for one test */
+		helper = new SQLiteOpenHelper(getContext(), null, null, 1) {
+			@Override
+			public void onCreate(SQLiteDatabase db)
+			{
+				for (String sql : SCHEMA) {
+					db.execSQL(sql);
+				}
+			}
+
+			@Override
+			public void onUpgrade(SQLiteDatabase db, int from, int to)
+			{
+			}
+		};
+		return true;
+	}
+
+	/**
+	 * @return the database behind the provider, for generators to fill.
+	 */
+	public SQLiteDatabase getDatabase()
+	{
+		return helper.getWritableDatabase();
+	}
+
+	/**
+	 * Close the database, the test is done with it.
+	 */
+	@Override
+	public void shutdown()
+	{
+		helper.close();
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection,
+			String[] args, String sort)
+	{
+		SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+		switch (URIS.match(uri)) {
+		case MESSAGES:
+			qb.setTables("sms");
+			break;
+		case MESSAGE:
+			qb.setTables("sms");
+			qb.appendWhere("_id = " + ContentUris.parseId(uri));
+			break;
+		case CONVERSATIONS:
+			/* only the simple form, the threads table as it is */
+			if (!"true".equals(uri.getQueryParameter("simple"))) {
+				throw new IllegalArgumentException(
+						"Only simple conversations are faked: " + uri);
+			}
+			qb.setTables("threads");
+			break;
+		case ADDRESSES:
+			qb.setTables("canonical_addresses");
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown uri " + uri);
+		}
+		return qb.query(getDatabase(), projection, selection, args, null,
+				null, sort);
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues values)
+	{
+		throw new UnsupportedOperationException("Texts are read only here");
+	}
+
+	@Override
+	public int delete(Uri uri, String selection, String[] args)
+	{
+		throw new UnsupportedOperationException("Texts are read only here");
+	}
+
+	@Override
+	public int update(Uri uri, ContentValues values, String selection,
+			String[] args)
+	{
+		throw new UnsupportedOperationException("Texts are read only here");
+	}
+
+	@Override
+	public String getType(Uri uri)
+	{
+		return null;
+	}
+}
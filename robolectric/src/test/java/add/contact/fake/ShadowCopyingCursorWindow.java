@@ -0,0 +1,40 @@
+package add.contact.fake;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowLegacyCursorWindow;
+
+import android.database.CharArrayBuffer;
+import android.database.CursorWindow;
+
+/**
+ * ShadowCopyingCursorWindow
+ * @author Matt
+ *
+ * Robolectric's cursor window for its sqlite4java databases, plus the
+ * copyStringToBuffer it leaves out. Without it every column the app reads
+ * into a buffer with Projection.Row.getChars comes back empty, numbers
+ * included, so no number would ever match. Registered for every test in
+ * robolectric.properties.
+ */
+@Implements(value = CursorWindow.class, isInAndroidSdk = false)
+public class ShadowCopyingCursorWindow extends ShadowLegacyCursorWindow
+{
+	@Implementation
+	protected static void nativeCopyStringToBuffer(long window, int row,
+			int column, CharArrayBuffer buffer)
+	{
+		String s = nativeGetString(window, row, column);
+		if (s == null) {
+			buffer.sizeCopied = 0;
+			return;
+		}
+		/* as the platform does it, grow the buffer only if it is short */
+		int len = s.length();
+		if (buffer.data == null || buffer.data.length < len) {
+			buffer.data = new char[len];
+		}
+		s.getChars(0, len, buffer.data, 0);
+		buffer.sizeCopied = len;
+	}
+}